@@ -0,0 +1,26 @@
+package board;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for each move the AI makes on the game board
+ * through Board.applyState.
+ */
+@Name("madking.ApplyState")
+@Label("Apply State")
+@Category({ "Mad King", "Board" })
+@Description("The AI's chosen move being made on the game board")
+@StackTrace(false)
+class ApplyStateEvent extends Event {
+
+	@Label("Move")
+	String move;
+
+	@Label("Dragons Moved")
+	boolean dragonsMoved;
+}
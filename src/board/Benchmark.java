@@ -0,0 +1,194 @@
+package board;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.ArrayList;
+import java.util.Locale;
+
+import cmpt317A2.GameNode;
+import cmpt317A2.Tuple;
+import search.AlphaBeta;
+import search.Minimax;
+
+/**
+ * Times the move generator, the evaluation and the searches over a fixed
+ * set of opening, middlegame and endgame positions, so a change can be
+ * shown to make them faster and a slowdown caught before it is merged.
+ *
+ * Each benchmark is warmed up and then run for a number of timed
+ * iterations. It reports the operations per second with their spread over
+ * the iterations, the bytes allocated per operation and the garbage
+ * collections that happened while it ran.
+ */
+public class Benchmark {
+
+	/** untimed iterations run first so the JIT has compiled the code */
+	private static final int WARMUP_ITERATIONS = 3;
+
+	/** timed iterations each result is averaged over */
+	private static final int MEASUREMENT_ITERATIONS = 5;
+
+	/** the positions every benchmark runs over, dragons to move */
+	private static final String[][] POSITIONS = {
+			{ "opening", "__K__", "_GGG_", "_____", "DDDDD", "_____" },
+			{ "middlegame", "_____", "_GK__", "D_G_D", "__D__", "D____" },
+			{ "endgame", "_____", "_____", "_DK__", "__G_D", "D____" } };
+
+	/** keeps the results alive so the JIT cannot throw the work away */
+	private static volatile Object sink;
+
+	private interface Operation {
+		Object run(State s);
+	}
+
+	private final Board gameBoard = new Board();
+
+	/** the length of each iteration in milliseconds */
+	private final long iterationTime;
+
+	/** only benchmarks whose name contains this are run */
+	private final String filter;
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	public Benchmark(long iterationTime, String filter) {
+		this.iterationTime = iterationTime;
+		this.filter = filter;
+	}
+
+	/**
+	 * Run every benchmark whose name matches the filter and print the results.
+	 */
+	public void run() {
+		System.out.println(String.format(Locale.ROOT, "%-32s %-11s %14s %12s %14s %8s", "Benchmark", "Position",
+				"ops/s", "error", "bytes/op", "gc"));
+
+		benchmark("Board.successors", s -> gameBoard.successors(s));
+		benchmark("Board.availableMoves", this::availableMoves);
+		benchmark("Board.terminalState", s -> gameBoard.terminalState(s));
+		benchmark("Board.utility", s -> gameBoard.utility(s));
+		benchmark("State.clone", s -> s.clone());
+		for (int depth = 2; depth <= 6; depth += 2) {
+			AlphaBeta alphaBeta = new AlphaBeta(gameBoard);
+			alphaBeta.setDepthLimit(depth);
+			benchmark("AlphaBeta.alphaBeta depth " + depth,
+					s -> alphaBeta.alphaBeta(new GameNode(s, 0, 0), true, true));
+		}
+		for (int depth = 2; depth <= 4; depth += 2) {
+			Minimax minimax = new Minimax(gameBoard);
+			minimax.setDepthLimit(depth);
+			benchmark("Minimax.MinimaxValue depth " + depth,
+					s -> minimax.MinimaxValue(new GameNode(s, 0, 0), true, true));
+		}
+	}
+
+	/** @return the moves of every piece of the side to move, as the UI asks */
+	private Object availableMoves(State s) {
+		int pieces = s.dragonsJustMoved() ? s.getKings() | s.getGuards() : s.getDragons();
+		ArrayList<Tuple> last = null;
+		for (; pieces != 0; pieces &= pieces - 1) {
+			Tuple square = Bitboard.toTuple(Integer.numberOfTrailingZeros(pieces));
+			last = gameBoard.availableMoves(s, square.getX(), square.getY());
+		}
+		return last;
+	}
+
+	private void benchmark(String name, Operation operation) {
+		if (!name.contains(filter)) {
+			return;
+		}
+		for (String[] position : POSITIONS) {
+			State s = position(position);
+			for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+				iteration(operation, s);
+			}
+
+			double[] rates = new double[MEASUREMENT_ITERATIONS];
+			long operations = 0;
+			long allocated = allocatedBytes();
+			long collections = collections();
+			for (int i = 0; i < MEASUREMENT_ITERATIONS; i++) {
+				long start = System.nanoTime();
+				long count = iteration(operation, s);
+				rates[i] = count * 1e9 / (System.nanoTime() - start);
+				operations += count;
+			}
+			allocated = allocatedBytes() - allocated;
+			collections = collections() - collections;
+
+			System.out.println(String.format(Locale.ROOT, "%-32s %-11s %14.1f %12.1f %14s %8d", name, position[0],
+					mean(rates), deviation(rates), allocated < 0 ? "n/a" : String.valueOf(allocated / operations),
+					collections));
+		}
+	}
+
+	/** @return how many times the operation ran before the iteration was up */
+	private long iteration(Operation operation, State s) {
+		long end = System.nanoTime() + iterationTime * 1000000L;
+		long count = 0;
+		do {
+			sink = operation.run(s);
+			count++;
+		} while (System.nanoTime() < end);
+		return count;
+	}
+
+	private static State position(String[] position) {
+		char[][] board = new char[5][];
+		for (int x = 0; x < 5; x++) {
+			board[x] = position[x + 1].toCharArray();
+		}
+		return new State(board);
+	}
+
+	/**
+	 * @return the bytes this thread has allocated so far, or -1 if the JVM
+	 *         cannot tell
+	 */
+	private long allocatedBytes() {
+		if (threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getCurrentThreadAllocatedBytes();
+		}
+		return -1;
+	}
+
+	/** @return the garbage collections run so far, over every collector */
+	private static long collections() {
+		long collections = 0;
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans()) {
+			collections += Math.max(0, collector.getCollectionCount());
+		}
+		return collections;
+	}
+
+	private static double mean(double[] values) {
+		double sum = 0;
+		for (double value : values) {
+			sum += value;
+		}
+		return sum / values.length;
+	}
+
+	/** @return the sample standard deviation of the values */
+	private static double deviation(double[] values) {
+		double mean = mean(values);
+		double squares = 0;
+		for (double value : values) {
+			squares += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(squares / (values.length - 1));
+	}
+
+	/**
+	 * @param args
+	 *            the length of each iteration in milliseconds (1000 by
+	 *            default) and part of the name of the benchmarks to run (all
+	 *            of them by default)
+	 */
+	public static void main(String[] args) {
+		long iterationTime = args.length > 0 ? Long.parseLong(args[0]) : 1000;
+		String filter = args.length > 1 ? args[1] : "";
+		new Benchmark(iterationTime, filter).run();
+	}
+}
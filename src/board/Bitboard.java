@@ -0,0 +1,152 @@
+package board;
+
+import cmpt317A2.Tuple;
+
+/**
+ * Helpers for 25-bit board masks. Square (x,y) maps to bit x*5+y, so moving
+ * one row is a shift by 5 and moving one column is a shift by 1 with the
+ * wrapped-around column masked off.
+ *
+ * The squares around a single square are looked up in tables built once
+ * when the class is loaded, so the move generators find a piece's
+ * neighbours with one array read and no checks for the edge of the board.
+ * The shifts are still there for masks of several squares at once.
+ */
+public final class Bitboard {
+
+	/** every square on the board */
+	public static final int FULL = (1 << 25) - 1;
+
+	/** the squares in each column */
+	private static final int COLUMN_ZERO = 0b00001_00001_00001_00001_00001;
+	private static final int COLUMN_ONE = COLUMN_ZERO << 1;
+	private static final int COLUMN_TWO = COLUMN_ZERO << 2;
+	private static final int COLUMN_THREE = COLUMN_ZERO << 3;
+	private static final int COLUMN_FOUR = COLUMN_ZERO << 4;
+
+	/** the squares on the edge of the board */
+	public static final int EDGE = FULL & ~0b00000_01110_01110_01110_00000;
+
+	/** the dragons' home row, which the king is trying to reach */
+	public static final int ROW_FOUR = 0b11111 << 20;
+
+	/** the number of horizontal and vertical steps between two squares */
+	private static final int[] DISTANCE = new int[25 * 25];
+
+	/** the horizontal and vertical neighbours of each square */
+	private static final int[] NEIGHBOURS = new int[25];
+
+	/** the diagonal neighbours of each square, where dragons can also move */
+	private static final int[] DIAGONALS = new int[25];
+
+	/**
+	 * the squares two steps from each square in a straight line, where a king
+	 * jumping a guard lands
+	 */
+	private static final int[] JUMPS = new int[25];
+
+	static {
+		for (int a = 0; a < 25; a++) {
+			for (int b = 0; b < 25; b++) {
+				DISTANCE[a * 25 + b] = Math.abs(row(a) - row(b)) + Math.abs(column(a) - column(b));
+			}
+
+			int square = 1 << a;
+			NEIGHBOURS[a] = orthogonal(square);
+			DIAGONALS[a] = diagonal(square);
+			JUMPS[a] = up(up(square)) | down(down(square)) | left(left(square)) | right(right(square));
+		}
+	}
+
+	private Bitboard() {
+	}
+
+	/** @return the Manhattan distance between two squares */
+	public static int distance(int a, int b) {
+		return DISTANCE[a * 25 + b];
+	}
+
+	public static int square(int x, int y) {
+		return x * 5 + y;
+	}
+
+	public static int row(int square) {
+		return square / 5;
+	}
+
+	public static int column(int square) {
+		return square % 5;
+	}
+
+	public static Tuple toTuple(int square) {
+		return new Tuple(row(square), column(square));
+	}
+
+	/** @return the square reflected left to right about column 2 */
+	public static int mirror(int square) {
+		return square + 4 - 2 * column(square);
+	}
+
+	/** @return the mask reflected left to right about column 2 */
+	public static int mirrorMask(int mask) {
+		return ((mask & COLUMN_ZERO) << 4) | ((mask & COLUMN_ONE) << 2) | (mask & COLUMN_TWO)
+				| ((mask & COLUMN_THREE) >>> 2) | ((mask & COLUMN_FOUR) >>> 4);
+	}
+
+	/** shift every square in the mask one row up (x - 1) */
+	public static int up(int mask) {
+		return mask >>> 5;
+	}
+
+	/** shift every square in the mask one row down (x + 1) */
+	public static int down(int mask) {
+		return (mask << 5) & FULL;
+	}
+
+	/** shift every square in the mask one column left (y - 1) */
+	public static int left(int mask) {
+		return (mask & ~COLUMN_ZERO) >>> 1;
+	}
+
+	/** shift every square in the mask one column right (y + 1) */
+	public static int right(int mask) {
+		return (mask & ~COLUMN_FOUR) << 1;
+	}
+
+	/** @return the horizontal and vertical neighbours of every square in mask */
+	public static int orthogonal(int mask) {
+		return up(mask) | down(mask) | left(mask) | right(mask);
+	}
+
+	/** @return the diagonal neighbours of every square in mask */
+	public static int diagonal(int mask) {
+		int rows = up(mask) | down(mask);
+		return left(rows) | right(rows);
+	}
+
+	/** @return the horizontal and vertical neighbours of a square */
+	public static int neighbours(int square) {
+		return NEIGHBOURS[square];
+	}
+
+	/** @return the diagonal neighbours of a square */
+	public static int diagonals(int square) {
+		return DIAGONALS[square];
+	}
+
+	/**
+	 * @return the squares a king on the given square could land on by jumping
+	 *         one of the guards, whether or not they are empty. A square two
+	 *         steps away is only next to one of the square's neighbours, the
+	 *         one in between, so the landing squares are the jump squares
+	 *         next to a neighbouring guard.
+	 */
+	public static int jumps(int square, int guards) {
+		return JUMPS[square] & orthogonal(NEIGHBOURS[square] & guards);
+	}
+
+	/** @return the number of pieces in mask next to the given square */
+	public static int countAround(int square, int mask) {
+		return Integer.bitCount(NEIGHBOURS[square] & mask);
+	}
+}
@@ -1,6 +1,7 @@
 package board;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedList;
 
 import cmpt317A2.Tuple;
@@ -8,6 +9,7 @@ import gamepiece.Dragon;
 import gamepiece.Guard;
 import gamepiece.King;
 import gamepiece.gamePiece;
+import search.Quiescence;
 
 public class Board {
 
@@ -17,6 +19,24 @@ public class Board {
 			{ '_', '_', '_', '_', '_' }, { 'D', 'D', 'D', 'D', 'D' }, { '_', '_', '_', '_', '_' } };
 	public static State actualGameState = new State(startingArray);
 
+	/**
+	 * the most moves any position can have: every square holding a piece with
+	 * eight moves. A buffer this long always has room for the moves of a
+	 * state.
+	 */
+	public static final int MAX_MOVES = 8 * 25;
+
+	// The parts of the utility function, indexed by the number of pieces or
+	// the king's row. Fewer than 4 dragons is worth -50, exactly 4 is -25,
+	// and any more are worth 10 each
+	private static final int[] DRAGON_VALUE = { -50, -50, -50, -50, -25, 50, 60, 70, 80 };
+	// the further the king is from row 4, the better for the dragons
+	private static final int[] KING_ROW_VALUE = { -1, -16, -81, -256, -625 };
+	// the fewer guards left, the better for the dragons
+	private static final int[] GUARD_VALUE = { 100, 40, 15, 0 };
+	// dragons next to the king are a threat, three or more wins outright
+	private static final int[] SURROUNDING_DRAGON_VALUE = { 0, 50, 300, 0, 0 };
+
 	// player one's objects
 	private King king = new King();
 	private Guard guardOne = new Guard(1, 1);
@@ -103,7 +123,8 @@ public class Board {
 	}
 
 	/**
-	 * return a list of moves that a unit at a given tile is able to make
+	 * return a list of moves that a unit at a given tile is able to make, for
+	 * the player's turn in Controller. The searches use moves instead.
 	 * 
 	 * @param x
 	 *            the x coordinate of the tile we are evaluating
@@ -115,101 +136,97 @@ public class Board {
 	 *         valid moves we can make.
 	 */
 	protected ArrayList<Tuple> availableMoves(State s, int x, int y) {
-		char piece = s.getChar(x, y);
 		ArrayList<Tuple> returnList = new ArrayList<Tuple>();
 
-		if (piece == '_') {
-			return returnList;
+		int targets = moveTargets(s, Bitboard.square(x, y));
+		while (targets != 0) {
+			int to = Integer.numberOfTrailingZeros(targets);
+			targets &= targets - 1;
+			returnList.add(Bitboard.toTuple(to));
 		}
 
-		if (isLegalMove(s, x, y + 1)) {
-			returnList.add(new Tuple(x, y + 1));
-		}
-		if (isLegalMove(s, x, y - 1)) {
-			returnList.add(new Tuple(x, y - 1));
-		}
-		if (isLegalMove(s, x + 1, y)) {
-			returnList.add(new Tuple(x + 1, y));
-		}
-		if (isLegalMove(s, x - 1, y)) {
-			returnList.add(new Tuple(x - 1, y));
+		return returnList;
+	}
+
+	/**
+	 * the squares that a unit on a given square is able to move to
+	 * 
+	 * @param s
+	 *            the state we are evaluating
+	 * @param square
+	 *            the square of the unit we are evaluating
+	 * @return a mask of every square the unit can move to, 0 if the square is
+	 *         empty
+	 */
+	public int moveTargets(State s, int square) {
+		return stepTargets(s, square) | captureTargets(s, square);
+	}
+
+	/**
+	 * the empty squares that a unit on a given square is able to move to,
+	 * leaving out captures
+	 * 
+	 * @param s
+	 *            the state we are evaluating
+	 * @param square
+	 *            the square of the unit we are evaluating
+	 * @return a mask of every empty square the unit can move to, 0 if the
+	 *         square is empty
+	 */
+	public int stepTargets(State s, int square) {
+		int piece = 1 << square;
+		int empty = s.getEmpty();
+
+		if ((empty & piece) != 0) {
+			return 0;
 		}
 
-		switch (piece) {
-		case ('K'): // the king has to additionally check if it can jump a guard
-			if (isGuard(s, x + 1, y)) {
-				if (isLegalMove(s, x + 2, y)) {
-					returnList.add(new Tuple(x + 2, y));
-				}
-			}
-			if (isGuard(s, x - 1, y)) {
-				if (isLegalMove(s, x - 2, y)) {
-					returnList.add(new Tuple(x - 2, y));
-				}
-			}
-			if (isGuard(s, x, y + 1)) {
-				if (isLegalMove(s, x, y + 2)) {
-					returnList.add(new Tuple(x, y + 2));
-				}
-			}
-			if (isGuard(s, x, y - 1)) {
-				if (isLegalMove(s, x, y - 2)) {
-					returnList.add(new Tuple(x, y - 2));
-				}
-			}
-			break;
-		case ('D'): // the dragons have to additionally check the diagonal
-					// movements
-			if (isLegalMove(s, x + 1, y + 1)) {
-				returnList.add(new Tuple(x + 1, y + 1));
-			}
-			if (isLegalMove(s, x - 1, y - 1)) {
-				returnList.add(new Tuple(x - 1, y - 1));
-			}
-			if (isLegalMove(s, x + 1, y - 1)) {
-				returnList.add(new Tuple(x + 1, y - 1));
-			}
-			if (isLegalMove(s, x - 1, y + 1)) {
-				returnList.add(new Tuple(x - 1, y + 1));
-			}
-			break;
-		default:
-			break;
+		int targets = Bitboard.neighbours(square) & empty;
+
+		if ((s.getKings() & piece) != 0) {
+			// the king has to additionally check if it can jump a guard
+			targets |= Bitboard.jumps(square, s.getGuards()) & empty;
+		} else if ((s.getDragons() & piece) != 0) {
+			// the dragons have to additionally check the diagonal movements
+			targets |= Bitboard.diagonals(square) & empty;
 		}
 
-		// Finally, a guard or king must check if it is eligible to capture a
-		// dragon
-		if (piece == 'K' || piece == 'G') {
-			// Check if horizontally or vertically adjacent to a dragon. If so,
-			// add option to capture dragon to move list
-			// Note that none of the capture logic is in this function. As far
-			// as this function is concerned, the
-			// king or guard is simply 'moving' to a space where there is
-			// already a dragon. Logic to kill the dragon
-			// is implemented elsewhere
-			if (isDragon(s, x + 1, y)) {
-				if (getNumSurroundingGuards(s, x + 1, y) >= 2) {
-					returnList.add(new Tuple(x + 1, y));
-				}
-			}
-			if (isDragon(s, x, y + 1)) {
-				if (getNumSurroundingGuards(s, x, y + 1) >= 2) {
-					returnList.add(new Tuple(x, y + 1));
-				}
-			}
-			if (isDragon(s, x - 1, y)) {
-				if (getNumSurroundingGuards(s, x - 1, y) >= 2) {
-					returnList.add(new Tuple(x - 1, y));
-				}
-			}
-			if (isDragon(s, x, y - 1)) {
-				if (getNumSurroundingGuards(s, x, y - 1) >= 2) {
-					returnList.add(new Tuple(x, y - 1));
-				}
+		return targets;
+	}
+
+	/**
+	 * the dragons that a king or guard on a given square is able to capture.
+	 * As far as move generation is concerned, the king or guard is simply
+	 * 'moving' to a space where there is already a dragon.
+	 * 
+	 * @param s
+	 *            the state we are evaluating
+	 * @param square
+	 *            the square of the unit we are evaluating
+	 * @return a mask of the dragons the unit can capture, 0 if the square does
+	 *         not hold a king or guard
+	 */
+	public int captureTargets(State s, int square) {
+		int piece = 1 << square;
+		int kingsAndGuards = s.getKings() | s.getGuards();
+
+		if ((kingsAndGuards & piece) == 0) {
+			return 0;
+		}
+
+		// Check if horizontally or vertically adjacent to a dragon that at
+		// least one other king or guard is also next to
+		int targets = 0;
+		int adjacentDragons = Bitboard.neighbours(square) & s.getDragons();
+		while (adjacentDragons != 0) {
+			int dragon = Integer.numberOfTrailingZeros(adjacentDragons);
+			adjacentDragons &= adjacentDragons - 1;
+			if (Bitboard.countAround(dragon, kingsAndGuards) >= 2) {
+				targets |= 1 << dragon;
 			}
 		}
 
-		return returnList;
+		return targets;
 	}
 
 	/**
@@ -220,43 +237,118 @@ public class Board {
 	 * 
 	 * @return All the possible state successors from that particular state
 	 */
-	public LinkedList<State> successors(State s) {
-		LinkedList<State> successors = new LinkedList<State>();
+	public ArrayList<State> successors(State s) {
+		int[] moves = new int[MAX_MOVES];
+		int count = moves(s, moves);
+		ArrayList<State> successors = new ArrayList<State>(count);
+		for (int i = 0; i < count; i++) {
+			successors.add(new State(s, moves[i]));
+		}
+		return successors;
+	}
 
-		/* Get all the piece positions for the team of interest */
-		LinkedList<Tuple> teamPositions = new LinkedList<Tuple>();
-		char[][] stateBoard = s.getBoard();
+	/**
+	 * Move generator for the AI searches, which make and unmake the moves on
+	 * a single state instead of building a state for every successor.
+	 * 
+	 * @param s
+	 *            A given game state
+	 * 
+	 * @return every move the side to move can make, packed by Move, king
+	 *         first, then guards, then dragons
+	 */
+	public int[] moves(State s) {
+		int[] moves = new int[MAX_MOVES];
+		return Arrays.copyOf(moves, moves(s, moves));
+	}
 
+	/**
+	 * The same moves as moves(State), written into a buffer the caller keeps,
+	 * so a search can reuse one buffer for each ply instead of allocating an
+	 * array at every node.
+	 * 
+	 * @param moves
+	 *            the buffer to fill, at least MAX_MOVES long
+	 * @return the number of moves written
+	 */
+	public int moves(State s, int[] moves) {
+		int count = 0;
 		if (s.dragonsJustMoved()) {
-			for (int x = 0; x < 5; x++) {
-				for (int y = 0; y < 5; y++) {
-					char curPiece = stateBoard[x][y];
-					if (curPiece == 'K') {
-						teamPositions.addFirst(new Tuple(x, y));
-					} else if (curPiece == 'G') {
-						teamPositions.addLast(new Tuple(x, y));
-					}
-				}
-			}
+			count = addMoves(s, moves, count, s.getKings(), Move.KING);
+			count = addMoves(s, moves, count, s.getGuards(), Move.GUARD);
 		} else {
-			for (int x = 0; x < 5; x++) {
-				for (int y = 0; y < 5; y++) {
-					if (stateBoard[x][y] == 'D') {
-						teamPositions.add(new Tuple(x, y));
-					}
+			count = addMoves(s, moves, count, s.getDragons(), Move.DRAGON);
+		}
+		return count;
+	}
+
+	/** add the moves of every piece in pieces, which are all of one kind */
+	private int addMoves(State s, int[] moves, int count, int pieces, int piece) {
+		int dragons = s.getDragons();
+		while (pieces != 0) {
+			int from = Integer.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+
+			int targets = moveTargets(s, from);
+			while (targets != 0) {
+				int to = Integer.numberOfTrailingZeros(targets);
+				targets &= targets - 1;
+				if ((dragons & (1 << to)) != 0) {
+					moves[count++] = Move.capture(from, to, piece);
+				} else {
+					moves[count++] = Move.of(from, to, piece);
 				}
 			}
 		}
+		return count;
+	}
 
-		ArrayList<Tuple> possibleMoves;
-		for (Tuple currentPosition : teamPositions) {
-			possibleMoves = availableMoves(s, currentPosition.getX(), currentPosition.getY());
-			for (Tuple move : possibleMoves) {
-				successors.addLast(new State(s, currentPosition, move, s.getChar(currentPosition)));
-			}
+	/**
+	 * Check whether the side to move can make any move at all, stopping at the
+	 * first one found.
+	 * 
+	 * @param s
+	 *            A given game state
+	 * @return true if the side to move has a legal move, false otherwise
+	 */
+	public boolean hasLegalMove(State s) {
+		if (s.dragonsJustMoved()) {
+			return hasLegalMove(s, s.getKings() | s.getGuards());
+		} else {
+			return hasLegalMove(s, s.getDragons());
 		}
+	}
 
-		return successors;
+	/**
+	 * Check whether any of a set of pieces can move, stopping at the first
+	 * move found.
+	 * 
+	 * @param s
+	 *            A given game state
+	 * @param pieces
+	 *            a mask of the squares of the pieces to check
+	 * @return true if any of the pieces has a legal move, false otherwise
+	 */
+	public boolean hasLegalMove(State s, int pieces) {
+		// Nearly every position has a piece next to an empty tile, which can
+		// be checked for all the pieces at once
+		int empty = s.getEmpty();
+		if ((Bitboard.orthogonal(pieces) & empty) != 0) {
+			return true;
+		}
+		if ((Bitboard.diagonal(pieces & s.getDragons()) & empty) != 0) {
+			return true;
+		}
+
+		// Otherwise only a king's jump or a capture is left
+		while (pieces != 0) {
+			int from = Integer.numberOfTrailingZeros(pieces);
+			pieces &= pieces - 1;
+			if (moveTargets(s, from) != 0) {
+				return true;
+			}
+		}
+		return false;
 	}
 
 	/**
@@ -267,19 +359,9 @@ public class Board {
 	 * @return True if the state indicates game is over, false otherwise.
 	 */
 	public boolean terminalState(State s) {
-		// To know if there is a winner, need to know where the king is
-
-		Tuple kingPosition = findKing(s.getBoard());
-		if (kingPosition == null) {
-			throw new IllegalStateException("There was no king on the board when checking terminal state!");
-		}
-
-		// Check if the dragons or kings have achieved the win state
-		if (dragonsWin(s, kingPosition) || kingWins(kingPosition)) {
-			// Set the state's win indicator to true
-			s.stateIsWinner();
+		if (isWinner(s)) {
 			return true;
-		} else if (successors(s).isEmpty()) {
+		} else if (!hasLegalMove(s)) {
 			// If there are no possible moves from the given state, it is a
 			// draw. There is no winner.
 			return true;
@@ -290,26 +372,30 @@ public class Board {
 	}
 
 	/**
-	 * Finds the king on a given gameBoard
+	 * Check if either side has won in a given state. Searches that generate
+	 * moves anyway use this instead of terminalState and treat a state
+	 * without moves as a draw once they find there are none.
 	 * 
-	 * @param gameBoard
-	 *            a 5x5 game board
-	 * @return a position Tuple with the king's position
+	 * @param s
+	 *            A given game state
+	 * @return True if the dragons or the king have won, false otherwise.
 	 */
-	private Tuple findKing(char[][] gameBoard) {
-		char curPiece;
-		for (int x = 0; x < 5; x++) {
-			for (int y = 0; y < 5; y++) {
-				curPiece = gameBoard[x][y];
-				if (curPiece == 'K') {
-					return new Tuple(x, y);
-				}
-			}
+	public boolean isWinner(State s) {
+		// To know if there is a winner, need to know where the king is
+		int kingSquare = s.getKingSquare();
+		if (kingSquare < 0) {
+			throw new IllegalStateException("There was no king on the board when checking terminal state!");
 		}
-		return null;
+
+		// Check if the dragons or kings have achieved the win state
+		if (dragonsWin(s, kingSquare) || kingWins(s)) {
+			// Set the state's win indicator to true
+			s.stateIsWinner();
+			return true;
+		}
+		return false;
 	}
-	
-	
+
 	//Might need to update the utility function to be usable for both king and Dragon AI
 	/**
 	 * Returns the utility value of a current state. Not necessarily a terminal
@@ -322,240 +408,80 @@ public class Board {
 	 */
 	public double utility(State s) {
 		if (s.potentialBoardWins()) {
-			if (!s.dragonsJustMoved()) {
-				return -1000;
-			} else {
+			// the dragons' win is checked first, whoever made the last move,
+			// just as Controller, MatchRunner and the tablebase decide it
+			if (dragonsWin(s, s.getKingSquare())) {
 				return 1000;
+			} else {
+				return -1000;
 			}
 		} else {
-			LinkedList<Tuple> kingTeam = new LinkedList<Tuple>();
-			LinkedList<Tuple> dragonTeam = new LinkedList<Tuple>();
-			char[][] stateBoard = s.getBoard();
-
-			for (int x = 0; x < 5; x++) {
-				for (int y = 0; y < 5; y++) {
-					char curPiece = stateBoard[x][y];
-					if (curPiece == 'K') {
-						kingTeam.addFirst(new Tuple(x, y));
-					} else if (curPiece == 'G') {
-						kingTeam.addLast(new Tuple(x, y));
-					} else if (curPiece == 'D') {
-						dragonTeam.add(new Tuple(x, y));
-					}
-				}
-			}
+			// every part of the value is kept up to date by the state as moves
+			// are made, so this is only a few table lookups and adds
 			int returnValue = 0;
 
 			// calculates the value of the dragons
-			if (dragonTeam.size() < 4) {
-				returnValue += -50;
-			} else if (dragonTeam.size() == 4) {
-				returnValue += -25;
-			} else {
-				returnValue += (10 * (dragonTeam.size()));
-			}
+			returnValue += DRAGON_VALUE[Math.min(s.getDragonCount(), DRAGON_VALUE.length - 1)];
 
 			// calculates the value based on kings position relative to his goal
-			Tuple kingPosition = kingTeam.getFirst();
-			returnValue += Math.negateExact((int) (Math.pow((kingPosition.getX() + 1), 4)));
+			returnValue += KING_ROW_VALUE[Bitboard.row(s.getKingSquare())];
 
 			// calculates the value based on number of guards
-			switch (kingTeam.size() - 1) {
-			case (0):
-				returnValue += 100;
-				break;
-			case (1):
-				returnValue += 40;
-				break;
-			case (2):
-				returnValue += 15;
-				break;
-			default:
-				break;
-			}
+			returnValue += GUARD_VALUE[Math.min(s.getGuardCount(), GUARD_VALUE.length - 1)];
 
 			// calculates the value based on dragons position relative to kings
-			int numberOfSurroundingDragons = getNumSurroundingDragons(s, kingPosition.getX(), kingPosition.getY());
-
-			switch (numberOfSurroundingDragons) {
-			case (2):
-				returnValue += 300;
-				break;
-			case (1):
-				returnValue += 50;
-				break;
-			default:
-				break;
-			}
+			returnValue += SURROUNDING_DRAGON_VALUE[s.getSurroundingDragons()];
 
 			// calculating negative points based on how far away the dragons are
 			// from the king
-			for (Tuple dragon : dragonTeam) {
-				int distance = Math.abs(dragon.getX() - kingPosition.getX())
-						+ Math.abs(dragon.getY() - kingPosition.getY());
-				returnValue -= (distance * 2);
-			}
+			returnValue -= s.getDragonDistance() * 2;
+
 			return returnValue;
 		}
 	}
 
 	/**
-	 * Get the number of dragons surrounding a piece at piecePosition. Per the
-	 * game rules, a piece can only be "surrounded" horizontally or vertically
-	 * NOT diagonally.
+	 * Get the number of dragons surrounding a piece on a square. Per the game
+	 * rules, a piece can only be "surrounded" horizontally or vertically NOT
+	 * diagonally.
 	 * 
 	 * @param s
 	 *            the state containing the game board to check
-	 * @param x
-	 *            The coordinates of the piece to check around
-	 * @param y
-	 *            The coordinates of the piece to check around
+	 * @param square
+	 *            The square of the piece to check around
 	 * 
 	 * @return integer between 0 and 4 indicating number of dragons surrounding
-	 *         the piece at piecePosition
+	 *         the piece on square
 	 */
-	private int getNumSurroundingDragons(State s, int x, int y) {
-		int numToReturn = 0;
-
-		if (isDragon(s, x + 1, y)) {
-			numToReturn++;
-		}
-
-		if (isDragon(s, x - 1, y)) {
-			numToReturn++;
-		}
-
-		if (isDragon(s, x, y + 1)) {
-			numToReturn++;
-		}
-
-		if (isDragon(s, x, y - 1)) {
-			numToReturn++;
-		}
-
-		return numToReturn;
+	private int getNumSurroundingDragons(State s, int square) {
+		return Bitboard.countAround(square, s.getDragons());
 	}
 
 	/**
-	 * Get the number of guards (including king) surrounding a piece at position
-	 * x,y. Per the game rules, a piece can only be "surrounded" horizontally or
-	 * vertically NOT diagonally.
+	 * Get the number of guards (including king) surrounding a piece on a
+	 * square. Per the game rules, a piece can only be "surrounded"
+	 * horizontally or vertically NOT diagonally.
 	 * 
 	 * @param s
 	 *            the state containing the game board to check
-	 * @param x
-	 *            The coordinates of the piece to check around
-	 * @param y
-	 *            The coordinates of the piece to check around
+	 * @param square
+	 *            The square of the piece to check around
 	 * 
 	 * @return integer between 0 and 4 indicating number of guards (including
-	 *         king) surrounding piece at x,y
-	 */
-	private int getNumSurroundingGuards(State s, int x, int y) {
-		int numGuards = 0;
-
-		if (isKingOrGuard(s, x - 1, y)) {
-			numGuards++;
-		}
-
-		if (isKingOrGuard(s, x, y - 1)) {
-			numGuards++;
-		}
-
-		if (isKingOrGuard(s, x + 1, y)) {
-			numGuards++;
-		}
-
-		if (isKingOrGuard(s, x, y + 1)) {
-			numGuards++;
-		}
-
-		return numGuards;
-	}
-
-	/**
-	 * checks a given tile to see if it is a king or guard
-	 * 
-	 * @param s
-	 *            the state containing the game board to check
-	 * @param x
-	 *            the x coordinate of the tile to check
-	 * @param y
-	 *            the y coordinate of the tile to check
-	 * @return true if the tile contains a 'K' or 'G', false otherwise.
-	 */
-	private boolean isKingOrGuard(State s, int x, int y) {
-		return checkPiece(s, x, y, 'K') || checkPiece(s, x, y, 'G');
-	}
-
-	/**
-	 * checks a given tile to see if it is a dragon
-	 * 
-	 * @param s
-	 *            the state containing the game board to check
-	 * @param x
-	 *            the x coordinate of the tile to check
-	 * @param y
-	 *            the y coordinate of the tile to check
-	 * @return true if the tile contains a 'D', false otherwise.
+	 *         king) surrounding the piece on square
 	 */
-	private boolean isDragon(State s, int x, int y) {
-		return checkPiece(s, x, y, 'D');
+	private int getNumSurroundingGuards(State s, int square) {
+		return Bitboard.countAround(square, s.getKings() | s.getGuards());
 	}
 
 	/**
-	 * checks a given tile to see if it is a guard
-	 * 
-	 * @param s
-	 *            the state containing the game board to check
-	 * @param x
-	 *            the x coordinate of the tile to check
-	 * @param y
-	 *            the y coordinate of the tile to check
-	 * @return true if the tile contains a 'G', false otherwise.
-	 */
-	private boolean isGuard(State s, int x, int y) {
-		return checkPiece(s, x, y, 'G');
-	}
-
-	/**
-	 * check a given tile to see if it is empty
-	 * 
-	 * @param s
-	 *            the state containing the game board to check
-	 * @param x
-	 *            the x coordinate of the tile to check
-	 * @param y
-	 *            the y coordinate of the tile to check
-	 * @return true if the tile contains a '_', false otherwise
-	 */
-	private boolean isLegalMove(State s, int x, int y) {
-		return checkPiece(s, x, y, '_');
-	}
-
-	/**
-	 * check a given tile to see if it has the required character on it
+	 * check the dragons' win condition
 	 * 
-	 * @param s
-	 *            the state containing the game board to check
-	 * @param x
-	 *            the x coordinate of the tile to check
-	 * @param y
-	 *            the y coordinate of the tile to check
-	 * @param letter
-	 *            the letter to check for
-	 * @return true if the tile contains "letter", false otherwise
+	 * @return true if the king is surrounded by at least 3 dragons in
+	 *         horizontal/vertical directions, false otherwise.
 	 */
-	private boolean checkPiece(State s, int x, int y, char letter) {
-		if ((x < 0) || (x > 4) || (y < 0) || (y > 4)) {
-			return false;
-		}
-
-		if (s.getChar(x, y) == letter) {
-			return true;
-		} else {
-			return false;
-		}
+	protected boolean dragonsWin(State s, Tuple kingPosition) {
+		return dragonsWin(s, Bitboard.square(kingPosition.getX(), kingPosition.getY()));
 	}
 
 	/**
@@ -564,14 +490,15 @@ public class Board {
 	 * @return true if the king is surrounded by at least 3 dragons in
 	 *         horizontal/vertical directions, false otherwise.
 	 */
-	protected boolean dragonsWin(State s, Tuple kingPosition) {
-		if (getNumSurroundingDragons(s, kingPosition.getX(), kingPosition.getY()) == 4) {
+	boolean dragonsWin(State s, int kingSquare) {
+		int surroundingDragons = getNumSurroundingDragons(s, kingSquare);
+		if (surroundingDragons == 4) {
 			return true;
-		} else if (getNumSurroundingDragons(s, kingPosition.getX(), kingPosition.getY()) == 3) {
-			if(kingPosition.getX() == 0 || kingPosition.getX() == 4 || kingPosition.getY() == 0 || kingPosition.getY() == 4){
+		} else if (surroundingDragons == 3) {
+			if ((Bitboard.EDGE & (1 << kingSquare)) != 0) {
 				return true;
 			}
-			if (getNumSurroundingGuards(s, kingPosition.getX(), kingPosition.getY()) == 1){
+			if (getNumSurroundingGuards(s, kingSquare) == 1) {
 				return true;
 			}
 		}
@@ -591,6 +518,15 @@ public class Board {
 		}
 	}
 
+	/**
+	 * check the king's win condition
+	 * 
+	 * @return true if the king is at the dragon's "home row", false otherwise.
+	 */
+	boolean kingWins(State s) {
+		return (s.getKings() & Bitboard.ROW_FOUR) != 0;
+	}
+
 	/**
 	 * check if any guards have been captured
 	 */
@@ -607,14 +543,19 @@ public class Board {
 			int y = currentPiece.getPosition().getY();
 
 			// If guard is surrounded by at least 3 dragons, the guard dies and
-			// is replaced with a dragon
-			if (getNumSurroundingDragons(Board.actualGameState, currentPiece.getPosition().getX(),
-					currentPiece.getPosition().getY()) >= 3) {
+			// is replaced with a dragon. A state chosen by the AI already has
+			// the dragon on the board, since makeMove converts guards too.
+			boolean alreadyConverted = actualGameState.getChar(x, y) == 'D';
+			if (alreadyConverted || getNumSurroundingDragons(Board.actualGameState, Bitboard.square(x, y)) >= 3) {
 				Dragon newDragon = new Dragon(x, y);
 				teamTwo.add(newDragon);
 				currentPiece.kill();
 				killList.add(currentPiece);
 
+				if (alreadyConverted) {
+					continue;
+				}
+
 				// The dragon must be replacing a guard, otherwise there is a
 				// serious problem
 				if (actualGameState.getChar(x, y) != 'G') {
@@ -659,23 +600,10 @@ public class Board {
 					"The AI search did not select a move to make in applyState! Check that a valid depth limit was selected.");
 		}
 
+		ApplyStateEvent event = new ApplyStateEvent();
+		event.begin();
+
 		actualGameState = s.clone();
-		LinkedList<Tuple> t1 = new LinkedList<Tuple>();
-		LinkedList<Tuple> t2 = new LinkedList<Tuple>();
-		char[][] stateBoard = s.getBoard();
-
-		for (int x = 0; x < 5; x++) {
-			for (int y = 0; y < 5; y++) {
-				char curPiece = stateBoard[x][y];
-				if (curPiece == 'K') {
-					t1.addFirst(new Tuple(x, y));
-				} else if (curPiece == 'G') {
-					t1.addLast(new Tuple(x, y));
-				} else if (curPiece == 'D') {
-					t2.add(new Tuple(x, y));
-				}
-			}
-		}
 
 		ArrayList<gamePiece> team;
 		if (s.dragonsJustMoved()) {
@@ -684,7 +612,9 @@ public class Board {
 			team = teamOne;
 		}
 		
-		if (t2.size() < teamTwo.size()){
+		// a king or guard landing on a dragon captured it; the dragon count
+		// can't tell us, since the same move may have converted a guard
+		if (!s.dragonsJustMoved()) {
 			this.killDragon(s.getNewPosition().getX(), s.getNewPosition().getY());
 		}
 
@@ -696,6 +626,11 @@ public class Board {
 		
 		//still have to remove the dead dragon from teamTwos
 
+		if (event.shouldCommit()) {
+			event.move = Move.toString(s.getLastMove());
+			event.dragonsMoved = s.dragonsJustMoved();
+			event.commit();
+		}
 	}
 
 	/**
@@ -716,5 +651,27 @@ public class Board {
 
 		System.out.println(testBoard.successors(testState));
 
+		// a win found inside the quiescence search has to be scored as a win:
+		// dragons to move, and D(1,4)->(2,3) surrounds the king
+		char[][] winInOne = { { '_', '_', '_', '_', '_' }, { '_', '_', 'D', '_', 'D' }, { '_', 'D', 'K', '_', '_' },
+				{ '_', 'G', 'G', '_', '_' }, { '_', '_', '_', '_', '_' } };
+		double value = new Quiescence(testBoard).search(new State(winInOne), Double.NEGATIVE_INFINITY,
+				Double.POSITIVE_INFINITY);
+		System.out.println("Quiescence value of a win in one: " + value);
+		if (value != 1000) {
+			throw new IllegalStateException("expected the dragons' win to score 1000, got " + value);
+		}
+
+		// the king has just moved in among three dragons beside a guard,
+		// which Controller counts as the dragons' win
+		char[][] kingMovedIn = { { '_', '_', '_', '_', '_' }, { '_', '_', '_', '_', '_' }, { 'D', 'G', 'G', '_', 'G' },
+				{ '_', 'D', 'K', 'D', '_' }, { '_', '_', 'D', 'D', '_' } };
+		State kingMovedInState = new State(kingMovedIn);
+		testBoard.isWinner(kingMovedInState);
+		value = testBoard.utility(kingMovedInState);
+		System.out.println("Utility of the king moving into a dragons' win: " + value);
+		if (value != 1000) {
+			throw new IllegalStateException("expected the dragons' win to score 1000, got " + value);
+		}
 	}
 }
\ No newline at end of file
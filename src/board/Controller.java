@@ -1,7 +1,8 @@
 package board;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.Scanner;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -11,7 +12,10 @@ import cmpt317A2.Tuple;
 import gamepiece.gamePiece;
 import search.AlphaBeta;
 import search.Minimax;
+import search.Ponderer;
+import search.PrincipalVariation;
 import search.Search;
+import search.SearchResult;
 
 public class Controller {
 
@@ -22,16 +26,50 @@ public class Controller {
 	final private int turnLimit = 25;
 	
 	/**
-	 * a hard-coded state limit: If a "state" appears 8 times then we will call
-	 * the game a draw. This number may have to be increased a bit since we are
-	 * only checking board characters, not specific pieces.
+	 * a hard-coded state limit: If a position comes up again this many times
+	 * then we will call the game a draw. Positions are compared by hash, so
+	 * the side to move has to match as well as the board.
 	 */
 	final private int stateLimit = 5;
 
 	/**
-	 * a HashMap that keeps all of the states.
+	 * the wall-clock time in milliseconds the Alpha-Beta AI may spend
+	 * searching each move.
 	 */
-	HashMap<String,Integer> states;
+	final private long aiTimeBudget = 3000;
+
+	/**
+	 * whether the Alpha-Beta AI searches its answers to the human player's
+	 * moves while the human is thinking.
+	 */
+	final private boolean ponder = true;
+
+	/** searches on the human player's time, null if not pondering */
+	private Ponderer ponderer;
+
+	/**
+	 * the endgame tablebase written by TablebaseGenerator. The AI uses it if
+	 * the file is there and plays on without it if not.
+	 */
+	final private String tablebaseFile = "endgame.tb";
+
+	/**
+	 * the opening book written by OpeningBookBuilder. Like the tablebase, the
+	 * AI plays on without it if the file is not there.
+	 */
+	final private String openingBookFile = "opening.book";
+
+	/** the opening book, or null if there is none */
+	private OpeningBook openingBook;
+
+	/**
+	 * the hash of every position the game has been through, oldest first.
+	 * The AI is given it too, so it can see which moves lead back to one.
+	 */
+	private long[] history = new long[2 * turnLimit + 1];
+
+	/** how many positions there are in history */
+	private int historyLength;
 
 	/** an instance of the game board, we only ever want one */
 	private Board myBoard = new Board();
@@ -41,7 +79,6 @@ public class Controller {
 
 	/** we never want to make a duplicate copy of this class. */
 	private Controller() {
-		states = new HashMap<String,Integer>();
 	}
 	
 	/**
@@ -137,18 +174,6 @@ public class Controller {
 		// then move it.
 		moveUnit(myUnits, moveList, xCoordinate, yCoordinate, pieceToMove);
 
-		String stateString = Board.actualGameState.stringify();
-		
-		if(states.containsKey(stateString)){
-			states.put(stateString, states.get(stateString) + 1);
-		} else {
-			states.put(stateString, 0);
-		}
-		
-		if(states.get(stateString) == stateLimit){
-			return true;
-		}
-		
 		Board.actualGameState.nextTurn();
 
 		return false;
@@ -236,18 +261,6 @@ public class Controller {
 		// then move it.
 		moveUnit(myUnits, moveList, xCoordinate, yCoordinate, pieceToMove);
 
-		String stateString = Board.actualGameState.stringify();
-		
-		if(states.containsKey(stateString)){
-			states.put(stateString, states.get(stateString) + 1);
-		} else {
-			states.put(stateString, 0);
-		}
-		
-		if(states.get(stateString) == stateLimit){
-			return true;
-		}
-		
 		Board.actualGameState.nextTurn();
 
 		return false;
@@ -320,13 +333,12 @@ public class Controller {
 	 * @return True if the game is a draw, false otherwise
 	 */
 	private boolean isDraw(ArrayList<gamePiece> listToCheck) {
+		int pieces = 0;
 		for (gamePiece currentPiece : listToCheck) {
 			Tuple currentTuple = currentPiece.getPosition();
-			if (myBoard.availableMoves(Board.actualGameState, currentTuple.getX(), currentTuple.getY()).size() != 0) {
-				return false;
-			}
+			pieces |= 1 << Bitboard.square(currentTuple.getX(), currentTuple.getY());
 		}
-		return true;
+		return !myBoard.hasLegalMove(Board.actualGameState, pieces);
 	}
 
 	/**
@@ -365,11 +377,28 @@ public class Controller {
 		// Print board
 		myBoard.printGameBoard();
 
-		// Perform AI search
+		// Play straight from the opening book if it covers this position,
+		// otherwise perform AI search
 		GameNode n = null;
+		AI.setHistory(history, historyLength);
+		int bookMove = openingBook == null ? Move.NONE : openingBook.probe(Board.actualGameState);
+		SearchResult pondered = ponderer == null ? null : ponderer.stop(Board.actualGameState);
 		
-		if (AlphaBeta.class.isInstance(AI)) {
-			n = ((AlphaBeta)AI).alphaBeta(new GameNode(Board.actualGameState.clone(), 0, 0), true, AIisDragon);
+		if (bookMove != Move.NONE) {
+			System.out.println("The AI played from its opening book, searched "
+					+ openingBook.depth(Board.actualGameState) + " moves ahead");
+			n = new GameNode(new State(Board.actualGameState, bookMove), 0, 0);
+		} else if (pondered != null) {
+			System.out.println("The AI searched " + pondered.getDepth() + " moves ahead while you were thinking");
+			n = pondered.getNode();
+		} else if (AlphaBeta.class.isInstance(AI)) {
+			SearchResult result = ((AlphaBeta)AI).iterativeDeepening(new GameNode(Board.actualGameState.clone(), 0, 0), AIisDragon);
+			System.out.println("The AI searched " + result.getDepth() + " moves ahead");
+			n = result.getNode();
+		} else if (PrincipalVariation.class.isInstance(AI)) {
+			SearchResult result = ((PrincipalVariation)AI).iterativeDeepening(new GameNode(Board.actualGameState.clone(), 0, 0));
+			System.out.println("The AI searched " + result.getDepth() + " moves ahead");
+			n = result.getNode();
 		} else if (Minimax.class.isInstance(AI)) {
 			n = ((Minimax)AI).MinimaxValue(new GameNode(Board.actualGameState.clone(), 0, 0), true, AIisDragon);
 		}
@@ -377,25 +406,76 @@ public class Controller {
 		if (n == null) {
 			throw new IllegalStateException("The AI method did not return a state!");
 		}
+		if (bookMove == Move.NONE && pondered == null) {
+			System.out.println("The AI's search: " + AI.getStatistics());
+		}
 		
 		// Apply the chosen state to our board.
 		// Note that this flips the dragonsJustMoved boolean in the state
 		// without us having to explicitly call nextTurn()
 		myBoard.applyState(n.getState());
 		
-		String stateString = n.getState().stringify();
-		
-		if(states.containsKey(stateString)){
-			states.put(stateString, states.get(stateString) + 1);
-		} else {
-			states.put(stateString, 0);
+		return false;
+	}
+
+	/**
+	 * Add the position on the board to the game's history.
+	 * 
+	 * @return true if it has come up so often the game is a draw
+	 */
+	private boolean recordPosition() {
+		long hash = Board.actualGameState.getHash();
+		int repeats = 0;
+		// the side to move alternates, so only every other position can match
+		for (int i = historyLength - 2; i >= 0; i -= 2) {
+			if (history[i] == hash) {
+				repeats++;
+			}
 		}
-		
-		if(states.get(stateString) == stateLimit){
-			return true;
+		history[historyLength++] = hash;
+		return repeats == stateLimit;
+	}
+
+	/**
+	 * Give the AI the endgame tablebase, if one has been generated.
+	 */
+	private void loadTablebase(Search AI) {
+		if (!new File(tablebaseFile).exists()) {
+			return;
+		}
+		try {
+			Tablebase tablebase = Tablebase.open(tablebaseFile);
+			AI.setTablebase(tablebase);
+			if (ponderer != null) {
+				ponderer.setTablebase(tablebase);
+			}
+		} catch (IOException e) {
+			System.out.println("Could not read the endgame tablebase, playing without it: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Have the AI search its answers to the human's moves while the human
+	 * decides on one.
+	 */
+	private void startPondering(boolean AIisDragon) {
+		if (ponderer != null) {
+			ponderer.start(Board.actualGameState, AIisDragon, history, historyLength);
+		}
+	}
+
+	/**
+	 * Read the opening book, if one has been built.
+	 */
+	private void loadOpeningBook() {
+		if (!new File(openingBookFile).exists()) {
+			return;
+		}
+		try {
+			openingBook = OpeningBook.open(openingBookFile);
+		} catch (IOException e) {
+			System.out.println("Could not read the opening book, playing without it: " + e.getMessage());
 		}
-		
-		return false;
 	}
 
 	/**
@@ -410,13 +490,13 @@ public class Controller {
 		System.out.println("~~~~~~~~~~~~~~~");
 		
 		/* Let the player pick alphabeta or minimax */
-		Pattern whichTeam1 = Pattern.compile("[AM]");
-		System.out.print("Please enter 'A' to play with Alpha-Beta AI or 'M' to play with Minimax AI: ");
+		Pattern whichTeam1 = Pattern.compile("[AMP]");
+		System.out.print("Please enter 'A' to play with Alpha-Beta AI, 'P' to play with Principal Variation AI or 'M' to play with Minimax AI: ");
 		String input1 = myScanner.nextLine();
 		Matcher userInput1 = whichTeam1.matcher(input1);
 
 		while (!userInput1.matches()) {
-			System.out.print("Please enter 'A' to play with Alpha-Beta AI or 'M' to play with Minimax AI: ");
+			System.out.print("Please enter 'A' to play with Alpha-Beta AI, 'P' to play with Principal Variation AI or 'M' to play with Minimax AI: ");
 			input1 = myScanner.nextLine();
 			userInput1 = whichTeam1.matcher(input1);
 		}
@@ -447,8 +527,10 @@ public class Controller {
 		if(numAI == '1'){
 			if (AIchoice == 'M') {
 				AI1 = new Minimax(myBoard);
+			} else if (AIchoice == 'P') {
+				AI1 = new PrincipalVariation(myBoard, aiTimeBudget);
 			} else {
-				AI1 = new AlphaBeta(myBoard);
+				AI1 = new AlphaBeta(myBoard, aiTimeBudget);
 			}
 			/* Let the player pick a team, AI will be the other team */
 			Pattern whichTeam = Pattern.compile("[DK]");
@@ -466,16 +548,27 @@ public class Controller {
 		} else {
 			if (AIchoice == 'M') {
 				AI1 = new Minimax(myBoard);
+			} else if (AIchoice == 'P') {
+				AI1 = new PrincipalVariation(myBoard, aiTimeBudget);
 			} else {
-				AI1 = new AlphaBeta(myBoard);
+				AI1 = new AlphaBeta(myBoard, aiTimeBudget);
 			}
 		}
 
+		if (ponder && numAI == '1' && AlphaBeta.class.isInstance(AI1)) {
+			ponderer = new Ponderer(myBoard, aiTimeBudget);
+		}
+		loadTablebase(AI1);
+		loadOpeningBook();
+
+		recordPosition();
+
 		/* Primary Game Loop */
 		int moves = 0;
 		for (; moves < turnLimit; moves++) {
 			// Dragons always move first
 			if (playerTeam == 'D') {
+				startPondering(false);
 				if (playerDragonTurn()) {
 					draw = true;
 					break;
@@ -497,6 +590,10 @@ public class Controller {
 			if (myBoard.kingWins(myBoard.getKing().getPosition())) {
 				break;
 			}
+			if (recordPosition()) {
+				draw = true;
+				break;
+			}
 			
 			//If there is two AI playing, then we add a "pause"
 			if(numAI == '2'){
@@ -509,6 +606,7 @@ public class Controller {
 	
 			// King always move second
 			if (playerTeam == 'K') {
+				startPondering(true);
 				if (playerKingTurn()) {
 					draw = true;
 					break;
@@ -530,6 +628,10 @@ public class Controller {
 			if (myBoard.kingWins(myBoard.getKing().getPosition())) {
 				break;
 			}
+			if (recordPosition()) {
+				draw = true;
+				break;
+			}
 			//If there is two AI playing, then we add a "pause"
 			if(numAI == '2'){
 				try {
@@ -548,6 +650,11 @@ public class Controller {
 			draw = true;
 		}
 
+		// the game may have ended on the human's move, with the AI pondering
+		if (ponderer != null) {
+			ponderer.stop(Board.actualGameState);
+		}
+
 		/* Print result of game */
 		System.out.println("~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~");
 		myBoard.printGameBoard();
@@ -0,0 +1,367 @@
+package board;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import cmpt317A2.GameNode;
+import search.AlphaBeta;
+import search.LazySMP;
+import search.Minimax;
+import search.ParallelAlphaBeta;
+import search.PrincipalVariation;
+import search.Search;
+
+/**
+ * Plays AI against AI with no one at the keyboard, many games at once, to
+ * tell whether a change to the search or evaluation makes the AI stronger.
+ *
+ * A match is between a test engine and a base engine, both named in a
+ * properties file along with the settings of the match:
+ *
+ * <pre>
+ * engine.new.type = AlphaBeta    (AlphaBeta, PrincipalVariation, LazySMP,
+ *                                 ParallelAlphaBeta or Minimax)
+ * engine.new.time = 100          (ms per move, 0 to search to a fixed depth,
+ *                                 which LazySMP can't do)
+ * engine.new.depth = 6           (the fixed depth, if there is no time)
+ * engine.new.threads = 2         (for LazySMP and ParallelAlphaBeta)
+ * engine.new.tablebase = endgame.tb
+ * test = new
+ * base = old
+ * games = 1000                   (the most games to play)
+ * threads = 4                    (games played at once)
+ * output = results.txt           (- for standard output)
+ * openings.plies = 2             (random moves to start each pair of games)
+ * openings.seed = 1
+ * sprt.elo0 = 0
+ * sprt.elo1 = 10
+ * sprt.alpha = 0.05
+ * sprt.beta = 0.05
+ * </pre>
+ *
+ * Games are played in pairs from the same random opening, each engine
+ * taking the dragons in one of them. The games are played by the same rules
+ * as Controller, only on a State of their own rather than the shared board.
+ * Every game finished is written as one line: its number, the engines
+ * playing the dragons and the king, the result (D for the dragons, K for
+ * the king, = for a draw) and the number of moves. The match stops early
+ * once the SPRT accepts either hypothesis.
+ */
+public class MatchRunner {
+
+	/** the turn and repetition limits, the same as Controller's */
+	private static final int TURN_LIMIT = 25;
+	private static final int STATE_LIMIT = 5;
+
+	private static final char DRAGONS_WIN = 'D';
+	private static final char KING_WINS = 'K';
+	private static final char DRAW = '=';
+
+	/** how an engine searches, as set in the properties */
+	private static class Engine {
+		final String name;
+		final String type;
+		final long time;
+		final int depth;
+		final int threads;
+		final Tablebase tablebase;
+
+		Engine(String name, Properties config) throws IOException {
+			String prefix = "engine." + name + ".";
+			this.name = name;
+			this.type = config.getProperty(prefix + "type", "AlphaBeta");
+			this.time = Long.parseLong(config.getProperty(prefix + "time", "100"));
+			this.depth = Integer.parseInt(config.getProperty(prefix + "depth", "0"));
+			this.threads = Integer.parseInt(config.getProperty(prefix + "threads", "1"));
+			if (type.equals("LazySMP") && time <= 0) {
+				throw new IllegalArgumentException(
+						"LazySMP only searches on a clock, so " + prefix + "time has to be above 0");
+			}
+			String tablebaseFile = config.getProperty(prefix + "tablebase");
+			this.tablebase = tablebaseFile == null ? null : Tablebase.open(tablebaseFile);
+		}
+
+		/** @return a new search set up the way this engine searches */
+		Search create(Board b) {
+			Search AI;
+			switch (type) {
+			case ("AlphaBeta"):
+				AI = time > 0 ? new AlphaBeta(b, time) : new AlphaBeta(b);
+				break;
+			case ("PrincipalVariation"):
+				AI = time > 0 ? new PrincipalVariation(b, time) : new PrincipalVariation(b);
+				break;
+			case ("LazySMP"):
+				AI = new LazySMP(b, time, threads);
+				break;
+			case ("ParallelAlphaBeta"):
+				AI = new ParallelAlphaBeta(b, threads);
+				break;
+			case ("Minimax"):
+				AI = new Minimax(b);
+				break;
+			default:
+				throw new IllegalArgumentException("Unknown engine type for " + name + ": " + type);
+			}
+			if (depth > 0) {
+				AI.setDepthLimit(depth);
+			}
+			AI.setTablebase(tablebase);
+			return AI;
+		}
+
+		/** @return the move AI chooses for the side to move in s */
+		int move(Search AI, State s) {
+			boolean AIisDragon = !s.dragonsJustMoved();
+			GameNode root = new GameNode(s.clone(), 0, 0);
+			GameNode n = null;
+			if (AlphaBeta.class.isInstance(AI)) {
+				n = time > 0 ? ((AlphaBeta) AI).iterativeDeepening(root, AIisDragon).getNode()
+						: ((AlphaBeta) AI).alphaBeta(root, true, AIisDragon);
+			} else if (PrincipalVariation.class.isInstance(AI)) {
+				n = time > 0 ? ((PrincipalVariation) AI).iterativeDeepening(root).getNode()
+						: ((PrincipalVariation) AI).search(root);
+			} else if (LazySMP.class.isInstance(AI)) {
+				n = ((LazySMP) AI).iterativeDeepening(root, AIisDragon).getNode();
+			} else if (ParallelAlphaBeta.class.isInstance(AI)) {
+				n = ((ParallelAlphaBeta) AI).alphaBeta(root, true, AIisDragon);
+			} else if (Minimax.class.isInstance(AI)) {
+				n = ((Minimax) AI).MinimaxValue(root, true, AIisDragon);
+			}
+			if (n == null || n.getState().getLastMove() == Move.NONE) {
+				throw new IllegalStateException(name + " did not choose a move in " + s.stringify());
+			}
+			return n.getState().getLastMove();
+		}
+	}
+
+	/** the searches never change the board, so every game can share it */
+	private final Board gameBoard = new Board();
+
+	private final Engine test;
+	private final Engine base;
+	private final int games;
+	private final int threads;
+	private final int openingPlies;
+	private final long openingSeed;
+	private final SPRT sprt;
+	private final PrintWriter output;
+
+	/** each worker thread's own searches, by engine name */
+	private final ThreadLocal<HashMap<String, Search>> searches = ThreadLocal
+			.withInitial(() -> new HashMap<String, Search>());
+
+	/** every search made for the match, to be shut down once it is over */
+	private final ConcurrentLinkedQueue<Search> created = new ConcurrentLinkedQueue<Search>();
+
+	/** raised once the SPRT has decided, so no more games are started */
+	private final AtomicBoolean stop = new AtomicBoolean();
+
+	/** the results from the test engine's point of view, guarded by this */
+	private int wins;
+	private int draws;
+	private int losses;
+	private int decision = SPRT.CONTINUE;
+
+	public MatchRunner(Properties config) throws IOException {
+		this.test = new Engine(config.getProperty("test", "test"), config);
+		this.base = new Engine(config.getProperty("base", "base"), config);
+		this.games = Integer.parseInt(config.getProperty("games", "1000"));
+		this.threads = Integer.parseInt(
+				config.getProperty("threads", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		this.openingPlies = Integer.parseInt(config.getProperty("openings.plies", "2"));
+		this.openingSeed = Long.parseLong(config.getProperty("openings.seed", "1"));
+		this.sprt = new SPRT(Double.parseDouble(config.getProperty("sprt.elo0", "0")),
+				Double.parseDouble(config.getProperty("sprt.elo1", "10")),
+				Double.parseDouble(config.getProperty("sprt.alpha", "0.05")),
+				Double.parseDouble(config.getProperty("sprt.beta", "0.05")));
+
+		String outputFile = config.getProperty("output", "-");
+		Writer writer = outputFile.equals("-") ? new OutputStreamWriter(System.out) : new FileWriter(outputFile);
+		this.output = new PrintWriter(new BufferedWriter(writer));
+	}
+
+	/**
+	 * Play the match until every game is done or the SPRT has decided.
+	 */
+	public void run() throws InterruptedException {
+		output.println("# " + test.name + " (" + test.type + ") vs " + base.name + " (" + base.type + "), SPRT bounds "
+				+ String.format(Locale.ROOT, "%.2f %.2f", sprt.getLowerBound(), sprt.getUpperBound()));
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		ArrayList<Future<?>> pairs = new ArrayList<Future<?>>();
+		for (int pair = 0; 2 * pair < games; pair++) {
+			int first = 2 * pair;
+			pairs.add(pool.submit(() -> playPair(first)));
+		}
+		try {
+			for (Future<?> pair : pairs) {
+				pair.get();
+			}
+		} catch (ExecutionException e) {
+			stop.set(true);
+			throw new IllegalStateException("a game failed", e.getCause());
+		} finally {
+			pool.shutdownNow();
+			for (Search AI : created) {
+				AI.shutdown();
+			}
+			output.flush();
+		}
+
+		synchronized (this) {
+			System.out.println(summary());
+		}
+	}
+
+	/** play both games of a pair from the same opening, swapping sides */
+	private void playPair(int first) {
+		State opening = opening(first / 2);
+		for (int game = first; game < Math.min(first + 2, games); game++) {
+			if (stop.get()) {
+				return;
+			}
+			boolean testIsDragon = game % 2 == 0;
+			Engine dragons = testIsDragon ? test : base;
+			Engine king = testIsDragon ? base : test;
+			int[] plies = new int[1];
+			char result = play(opening.clone(), dragons, king, plies);
+			record(game, dragons, king, result, plies[0], testIsDragon);
+		}
+	}
+
+	/** @return the starting position after a few random moves */
+	private State opening(int pair) {
+		Random random = new Random(openingSeed * 1000003 + pair);
+		State s = Board.actualGameState.clone();
+		for (int ply = 0; ply < openingPlies && !gameBoard.terminalState(s); ply++) {
+			int[] moves = gameBoard.moves(s);
+			s.makeMove(moves[random.nextInt(moves.length)]);
+		}
+		return s;
+	}
+
+	/** @return a new search for engine, kept to be shut down with the match */
+	private Search create(Engine engine) {
+		Search AI = engine.create(gameBoard);
+		created.add(AI);
+		return AI;
+	}
+
+	/**
+	 * @param plies
+	 *            set to the number of moves the engines made
+	 * @return DRAGONS_WIN, KING_WINS or DRAW
+	 */
+	private char play(State s, Engine dragons, Engine king, int[] plies) {
+		HashMap<String, Search> mine = searches.get();
+		Search dragonsAI = mine.computeIfAbsent(dragons.name, name -> create(dragons));
+		Search kingAI = mine.computeIfAbsent(king.name, name -> create(king));
+		long[] history = new long[2 * TURN_LIMIT + 1];
+		int length = 0;
+		history[length++] = s.getHash();
+
+		for (int turn = 0; turn < 2 * TURN_LIMIT && !gameBoard.isWinner(s); turn++) {
+			if (!gameBoard.hasLegalMove(s)) {
+				return DRAW;
+			}
+			boolean dragonsToMove = !s.dragonsJustMoved();
+			Engine engine = dragonsToMove ? dragons : king;
+			Search AI = dragonsToMove ? dragonsAI : kingAI;
+			AI.setHistory(history, length);
+			s.makeMove(engine.move(AI, s));
+			plies[0]++;
+			if (gameBoard.isWinner(s)) {
+				break;
+			}
+
+			// the same position coming up too often is a draw, as in Controller
+			int repeats = 0;
+			for (int i = length - 2; i >= 0; i -= 2) {
+				if (history[i] == s.getHash()) {
+					repeats++;
+				}
+			}
+			if (repeats == STATE_LIMIT) {
+				return DRAW;
+			}
+			history[length++] = s.getHash();
+		}
+
+		if (gameBoard.dragonsWin(s, s.getKingSquare())) {
+			return DRAGONS_WIN;
+		} else if (gameBoard.kingWins(s)) {
+			return KING_WINS;
+		}
+		return DRAW;
+	}
+
+	private synchronized void record(int game, Engine dragons, Engine king, char result, int plies,
+			boolean testIsDragon) {
+		output.println(game + " " + dragons.name + " " + king.name + " " + result + " " + plies);
+		output.flush();
+
+		if (result == DRAW) {
+			draws++;
+		} else if ((result == DRAGONS_WIN) == testIsDragon) {
+			wins++;
+		} else {
+			losses++;
+		}
+
+		if (decision == SPRT.CONTINUE) {
+			decision = sprt.status(wins, draws, losses);
+			if (decision != SPRT.CONTINUE) {
+				stop.set(true);
+			}
+		}
+		if ((wins + draws + losses) % 20 == 0 || decision != SPRT.CONTINUE) {
+			System.out.println(summary());
+		}
+	}
+
+	/** @return the match so far in one line, called holding the lock */
+	private String summary() {
+		int played = wins + draws + losses;
+		double score = played == 0 ? 0.5 : (wins + draws / 2.0) / played;
+		String status = decision == SPRT.ACCEPT_H1 ? "H1 accepted" : decision == SPRT.ACCEPT_H0 ? "H0 accepted" : "";
+		return String.format(Locale.ROOT, "Games %d: +%d =%d -%d, score %.3f, Elo %.1f, LLR %.2f %s", played, wins,
+				draws, losses, score, SPRT.elo(score), sprt.llr(wins, draws, losses), status);
+	}
+
+	/**
+	 * @param args
+	 *            the properties file describing the match (match.properties by
+	 *            default). Without one, two Alpha-Beta AIs are matched.
+	 */
+	public static void main(String[] args) throws IOException, InterruptedException {
+		String configFile = args.length > 0 ? args[0] : "match.properties";
+		Properties config = new Properties();
+		if (new File(configFile).exists()) {
+			try (InputStream in = new FileInputStream(configFile)) {
+				config.load(in);
+			}
+		} else {
+			System.out.println("No " + configFile + ", matching two Alpha-Beta AIs");
+		}
+		new MatchRunner(config).run();
+	}
+}
@@ -0,0 +1,69 @@
+package board;
+
+/**
+ * Moves packed into a single int: the square moved from in the low five bits,
+ * the square moved to in the next five, then two bits for the piece moved and
+ * one bit set if the move captures a dragon. A move never starts and ends on
+ * the same square, so 0 is free to mean "no move". Every move fits in BITS
+ * bits, so a move can be stored in a short or used as an array index.
+ */
+public final class Move {
+
+	public static final int NONE = 0;
+
+	/** the piece moved */
+	public static final int KING = 1;
+	public static final int GUARD = 2;
+	public static final int DRAGON = 3;
+
+	/** the number of bits a move takes up */
+	public static final int BITS = 13;
+
+	private static final int PIECE_SHIFT = 10;
+	private static final int CAPTURE = 1 << 12;
+
+	private Move() {
+	}
+
+	/** @return a move that does not capture */
+	public static int of(int from, int to, int piece) {
+		return from | (to << 5) | (piece << PIECE_SHIFT);
+	}
+
+	/** @return a move of a king or guard onto a dragon, capturing it */
+	public static int capture(int from, int to, int piece) {
+		return of(from, to, piece) | CAPTURE;
+	}
+
+	public static int from(int move) {
+		return move & 31;
+	}
+
+	public static int to(int move) {
+		return (move >>> 5) & 31;
+	}
+
+	/** @return KING, GUARD or DRAGON */
+	public static int piece(int move) {
+		return (move >>> PIECE_SHIFT) & 3;
+	}
+
+	public static boolean isCapture(int move) {
+		return (move & CAPTURE) != 0;
+	}
+
+	/** @return the same move reflected left to right, Move.NONE for none */
+	public static int mirror(int move) {
+		if (move == NONE) {
+			return NONE;
+		}
+		return (move & ~1023) | Bitboard.mirror(from(move)) | (Bitboard.mirror(to(move)) << 5);
+	}
+
+	public static String toString(int move) {
+		if (move == NONE) {
+			return "none";
+		}
+		return Bitboard.toTuple(from(move)) + "->" + Bitboard.toTuple(to(move));
+	}
+}
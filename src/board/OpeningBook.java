@@ -0,0 +1,103 @@
+package board;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * The moves OpeningBookBuilder chose for the first few moves of the game
+ * with searches far deeper than there is time for in play, read from the
+ * file it writes.
+ *
+ * The file starts with MAGIC and the number of entries, followed by the
+ * entries sorted by hash. Each entry is the canonical hash of a position,
+ * the move to play there as seen from the canonical side (two bytes), the
+ * depth it was searched to (two bytes) and its value to the side to move
+ * (four bytes). Mirror images share an entry, the same as in the
+ * transposition table. MAGIC changes whenever the file's layout or the way
+ * Move packs a move does, so an old book is refused rather than misread.
+ */
+public class OpeningBook {
+
+	static final int MAGIC = 0x4D4B4F43;
+
+	/** the canonical hash of each position, sorted */
+	private final long[] hashes;
+
+	/** the move, depth and value of the position with the same index */
+	private final int[] moves;
+	private final int[] depths;
+	private final float[] values;
+
+	OpeningBook(long[] hashes, int[] moves, int[] depths, float[] values) {
+		this.hashes = hashes;
+		this.moves = moves;
+		this.depths = depths;
+		this.values = values;
+	}
+
+	/**
+	 * Read an opening book into memory.
+	 *
+	 * @param fileName
+	 *            the file written by OpeningBookBuilder
+	 */
+	public static OpeningBook open(String fileName) throws IOException {
+		try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(fileName)))) {
+			if (in.readInt() != MAGIC) {
+				throw new IOException(fileName + " is not an opening book");
+			}
+			int size = in.readInt();
+			long[] hashes = new long[size];
+			int[] moves = new int[size];
+			int[] depths = new int[size];
+			float[] values = new float[size];
+			for (int i = 0; i < size; i++) {
+				hashes[i] = in.readLong();
+				moves[i] = in.readUnsignedShort();
+				depths[i] = in.readUnsignedShort();
+				values[i] = in.readFloat();
+				if (i > 0 && hashes[i] <= hashes[i - 1]) {
+					throw new IOException(fileName + " is not sorted by hash");
+				}
+			}
+			return new OpeningBook(hashes, moves, depths, values);
+		}
+	}
+
+	/** @return the number of positions in the book */
+	public int size() {
+		return hashes.length;
+	}
+
+	/**
+	 * @return the book move for the side to move in s, packed by Move, or
+	 *         Move.NONE if s is not in the book
+	 */
+	public int probe(State s) {
+		int entry = find(s);
+		if (entry < 0) {
+			return Move.NONE;
+		}
+		return s.isMirrored() ? Move.mirror(moves[entry]) : moves[entry];
+	}
+
+	/** @return the depth the book move for s was searched to, 0 for none */
+	public int depth(State s) {
+		int entry = find(s);
+		return entry < 0 ? 0 : depths[entry];
+	}
+
+	/** @return the value of s to the side to move, 0 if s is not in the book */
+	public double value(State s) {
+		int entry = find(s);
+		return entry < 0 ? 0 : values[entry];
+	}
+
+	private int find(State s) {
+		int entry = Arrays.binarySearch(hashes, s.getCanonicalHash());
+		return entry < 0 ? -1 : entry;
+	}
+}
@@ -0,0 +1,126 @@
+package board;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import cmpt317A2.GameNode;
+import search.AlphaBeta;
+import search.SearchResult;
+
+/**
+ * Builds the opening book by searching the first few moves of the game from
+ * the starting position for far longer than the AI gets in play.
+ *
+ * The book is built once for each side. Where the book's side is to move,
+ * the position is searched and only the move chosen is followed; where the
+ * other side is to move, every reply is followed, so whatever the opponent
+ * plays the book has an answer until it runs out of moves. Transpositions
+ * and mirror images are only searched once.
+ */
+public class OpeningBookBuilder {
+
+	private final Board gameBoard;
+
+	/** how many moves from the start the book covers */
+	private final int plies;
+
+	/** the time in milliseconds to search each book position */
+	private final long timeBudget;
+
+	/** every position searched so far, by canonical hash */
+	private final TreeMap<Long, Entry> entries = new TreeMap<Long, Entry>();
+
+	private static class Entry {
+		/** the move chosen, as seen from the canonical side */
+		final int move;
+		final int depth;
+		final float value;
+
+		Entry(int move, int depth, float value) {
+			this.move = move;
+			this.depth = depth;
+			this.value = value;
+		}
+	}
+
+	public OpeningBookBuilder(Board b, int plies, long timeBudget) {
+		this.gameBoard = b;
+		this.plies = plies;
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * Search every book position and write the book to a file.
+	 */
+	public void build(String fileName) throws IOException {
+		State start = Board.actualGameState.clone();
+		expand(start, 0, true);
+		expand(start, 0, false);
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+			out.writeInt(OpeningBook.MAGIC);
+			out.writeInt(entries.size());
+			// a TreeMap iterates in the same signed order the book searches in
+			for (Map.Entry<Long, Entry> entry : entries.entrySet()) {
+				out.writeLong(entry.getKey());
+				out.writeShort(entry.getValue().move);
+				out.writeShort(entry.getValue().depth);
+				out.writeFloat(entry.getValue().value);
+			}
+		}
+	}
+
+	/**
+	 * @param bookIsDragon
+	 *            true if the book is being built for the dragons, false for
+	 *            the king
+	 */
+	private void expand(State s, int ply, boolean bookIsDragon) {
+		if (ply >= plies || gameBoard.isWinner(s) || !gameBoard.hasLegalMove(s)) {
+			return;
+		}
+
+		boolean dragonsToMove = !s.dragonsJustMoved();
+		if (dragonsToMove == bookIsDragon) {
+			expand(new State(s, search(s)), ply + 1, bookIsDragon);
+		} else {
+			for (int move : gameBoard.moves(s)) {
+				expand(new State(s, move), ply + 1, bookIsDragon);
+			}
+		}
+	}
+
+	/** @return the move to play in s, searching it if it is not done yet */
+	private int search(State s) {
+		Entry entry = entries.get(s.getCanonicalHash());
+		if (entry == null) {
+			boolean dragonsToMove = !s.dragonsJustMoved();
+			SearchResult result = new AlphaBeta(gameBoard, timeBudget)
+					.iterativeDeepening(new GameNode(s.clone(), 0, 0), dragonsToMove);
+			int move = result.getNode().getState().getLastMove();
+			entry = new Entry(s.isMirrored() ? Move.mirror(move) : move, result.getDepth(),
+					(float) result.getNode().getValue());
+			entries.put(s.getCanonicalHash(), entry);
+			System.out.println("Book position " + entries.size() + ": " + s.stringify() + " plays "
+					+ Move.toString(move) + " after searching " + result.getDepth() + " moves ahead");
+		}
+		return s.isMirrored() ? Move.mirror(entry.move) : entry.move;
+	}
+
+	/**
+	 * @param args
+	 *            the file to write (opening.book by default), the number of
+	 *            moves to cover (4 by default) and the time in milliseconds to
+	 *            search each position (10000 by default)
+	 */
+	public static void main(String[] args) throws IOException {
+		String fileName = args.length > 0 ? args[0] : "opening.book";
+		int plies = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		long timeBudget = args.length > 2 ? Long.parseLong(args[2]) : 10000;
+		new OpeningBookBuilder(new Board(), plies, timeBudget).build(fileName);
+	}
+}
@@ -0,0 +1,287 @@
+package board;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Counts the positions reached by every sequence of moves to a given depth,
+ * the standard check that a move generator is both right and fast. A
+ * rewrite of the move generator has to give the same counts as before; the
+ * divide mode breaks the count down by first move to narrow down where two
+ * generators disagree.
+ *
+ * A game that is already won is a leaf, whatever the depth, since no one
+ * moves after it. Counts of subtrees can be kept in a hash table so a
+ * position reached again (or its mirror image) is only counted once, and a
+ * deep count can be split across every core with a ForkJoin pool.
+ */
+public class Perft {
+
+	/** a subtree at least this deep is split into tasks of its moves */
+	private static final int SPLIT_DEPTH = 4;
+
+	/** the number of entries in the table of subtree counts */
+	private static final int TABLE_SIZE = 1 << 22;
+
+	/** the remaining depth is kept in the low bits of each table entry */
+	private static final int DEPTH_BITS = 6;
+
+	private final Board gameBoard;
+
+	/**
+	 * subtree counts by canonical hash, null when hashing is off. Like the
+	 * transposition table, each key is stored XORed with its entry so a slot
+	 * torn by two threads writing at once reads as a miss.
+	 */
+	private final long[] keys;
+	private final long[] counts;
+
+	/** true to count through Board.successors instead of making moves */
+	private final boolean successors;
+
+	/**
+	 * @param hashing
+	 *            true to remember the count of every subtree
+	 * @param successors
+	 *            true to generate states with Board.successors, false to make
+	 *            and unmake the moves of Board.moves as the searches do
+	 */
+	public Perft(Board b, boolean hashing, boolean successors) {
+		this.gameBoard = b;
+		this.keys = hashing ? new long[TABLE_SIZE] : null;
+		this.counts = hashing ? new long[TABLE_SIZE] : null;
+		this.successors = successors;
+	}
+
+	/** @return the number of positions depth moves on from s */
+	public long perft(State s, int depth) {
+		checkDepth(depth, 0);
+		return perft(s, depth, new int[depth + 1][Board.MAX_MOVES]);
+	}
+
+	/**
+	 * @param moves
+	 *            a move buffer for each remaining depth, so the count
+	 *            allocates nothing as it goes
+	 */
+	private long perft(State s, int depth, int[][] moves) {
+		if (depth == 0 || gameBoard.isWinner(s)) {
+			return 1;
+		}
+		long count = probe(s, depth);
+		if (count >= 0) {
+			return count;
+		}
+
+		count = 0;
+		if (successors) {
+			for (State successor : gameBoard.successors(s)) {
+				count += perft(successor, depth - 1, moves);
+			}
+		} else if (depth == 1) {
+			count = gameBoard.moves(s, moves[depth]);
+		} else {
+			int[] buffer = moves[depth];
+			int n = gameBoard.moves(s, buffer);
+			for (int i = 0; i < n; i++) {
+				s.makeMove(buffer[i]);
+				count += perft(s, depth - 1, moves);
+				s.unmakeMove(buffer[i]);
+			}
+		}
+		store(s, depth, count);
+		return count;
+	}
+
+	/**
+	 * The same count as perft, with every subtree of SPLIT_DEPTH or more
+	 * split into a task for each move.
+	 */
+	public long parallelPerft(State s, int depth) {
+		checkDepth(depth, 0);
+		return ForkJoinPool.commonPool().invoke(new PerftTask(s.clone(), depth));
+	}
+
+	/**
+	 * @param depth
+	 *            at least 1, the first move being one of them
+	 * @return the count below each move from s, in the order Board.moves
+	 *         gives them
+	 */
+	public long[] divide(State s, int depth, boolean parallel) {
+		checkDepth(depth, 1);
+		int[] moves = gameBoard.moves(s);
+		long[] counts = new long[moves.length];
+		if (parallel) {
+			ArrayList<PerftTask> tasks = new ArrayList<PerftTask>();
+			for (int move : moves) {
+				tasks.add(new PerftTask(new State(s, move), depth - 1));
+			}
+			// every first move's subtree is counted at once
+			ForkJoinTask.invokeAll(tasks);
+			for (int i = 0; i < moves.length; i++) {
+				counts[i] = tasks.get(i).join();
+			}
+		} else {
+			for (int i = 0; i < moves.length; i++) {
+				counts[i] = perft(new State(s, moves[i]), depth - 1);
+			}
+		}
+		return counts;
+	}
+
+	private static void checkDepth(int depth, int least) {
+		if (depth < least) {
+			throw new IllegalArgumentException("The depth has to be at least " + least + ", not " + depth);
+		}
+	}
+
+	/** @return the stored count of s to the given depth, -1 if there is none */
+	private long probe(State s, int depth) {
+		if (keys == null) {
+			return -1;
+		}
+		long key = s.getCanonicalHash();
+		int index = (int) key & (TABLE_SIZE - 1);
+		long entry = counts[index];
+		if ((keys[index] ^ entry) == key && (entry & ((1 << DEPTH_BITS) - 1)) == depth) {
+			return entry >>> DEPTH_BITS;
+		}
+		return -1;
+	}
+
+	private void store(State s, int depth, long count) {
+		if (keys == null) {
+			return;
+		}
+		long key = s.getCanonicalHash();
+		int index = (int) key & (TABLE_SIZE - 1);
+		long entry = (count << DEPTH_BITS) | depth;
+		keys[index] = key ^ entry;
+		counts[index] = entry;
+	}
+
+	/** counts one subtree, forking a task for each move if it is deep enough */
+	private class PerftTask extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final State s;
+		private final int depth;
+
+		PerftTask(State s, int depth) {
+			this.s = s;
+			this.depth = depth;
+		}
+
+		@Override
+		protected Long compute() {
+			if (depth < SPLIT_DEPTH || gameBoard.isWinner(s)) {
+				return perft(s, depth);
+			}
+			long count = probe(s, depth);
+			if (count >= 0) {
+				return count;
+			}
+
+			ArrayList<PerftTask> tasks = new ArrayList<PerftTask>();
+			for (int move : gameBoard.moves(s)) {
+				tasks.add(new PerftTask(new State(s, move), depth - 1));
+			}
+			invokeAll(tasks);
+			count = 0;
+			for (PerftTask task : tasks) {
+				count += task.join();
+			}
+			store(s, depth, count);
+			return count;
+		}
+	}
+
+	/**
+	 * @param args
+	 *            the depth to count to, then optionally the position as the
+	 *            25 characters State.stringify gives (the starting position by
+	 *            default) and any of: "king" if the king is to move, "divide"
+	 *            to break the count down by first move, "hash" to remember
+	 *            subtree counts, "parallel" to count on every core and
+	 *            "successors" to count with Board.successors
+	 */
+	public static void main(String[] args) {
+		if (args.length == 0) {
+			System.out.println("Usage: Perft depth [position] [king] [divide] [hash] [parallel] [successors]");
+			return;
+		}
+		int depth = Integer.parseInt(args[0]);
+		State s = Board.actualGameState.clone();
+		boolean kingToMove = false;
+		boolean divide = false;
+		boolean hashing = false;
+		boolean parallel = false;
+		boolean successors = false;
+		for (int i = 1; i < args.length; i++) {
+			switch (args[i]) {
+			case ("king"):
+				kingToMove = true;
+				break;
+			case ("divide"):
+				divide = true;
+				break;
+			case ("hash"):
+				hashing = true;
+				break;
+			case ("parallel"):
+				parallel = true;
+				break;
+			case ("successors"):
+				successors = true;
+				break;
+			default:
+				s = parsePosition(args[i]);
+			}
+		}
+		if (kingToMove) {
+			s.nextTurn();
+		}
+		if (depth < (divide ? 1 : 0)) {
+			System.out.println("The depth has to be at least " + (divide ? "1 to divide" : "0"));
+			return;
+		}
+
+		Perft perft = new Perft(new Board(), hashing, successors);
+		long start = System.nanoTime();
+		long nodes;
+		if (divide) {
+			int[] moves = perft.gameBoard.moves(s);
+			long[] counts = perft.divide(s, depth, parallel);
+			nodes = 0;
+			for (int i = 0; i < moves.length; i++) {
+				System.out.println(Move.toString(moves[i]) + ": " + counts[i]);
+				nodes += counts[i];
+			}
+		} else if (parallel) {
+			nodes = perft.parallelPerft(s, depth);
+		} else {
+			nodes = perft.perft(s, depth);
+		}
+		long elapsed = System.nanoTime() - start;
+
+		System.out.println("Nodes: " + nodes);
+		System.out.println("Time: " + elapsed / 1000000 + "ms");
+		System.out.println("Nodes/second: " + (long) (nodes * 1e9 / Math.max(1, elapsed)));
+	}
+
+	/** @return the state of a position written as State.stringify writes it */
+	private static State parsePosition(String position) {
+		if (!position.matches("[KGD_]{25}")) {
+			throw new IllegalArgumentException("Not a position or option: " + position);
+		}
+		char[][] board = new char[5][5];
+		for (int i = 0; i < 25; i++) {
+			board[i / 5][i % 5] = position.charAt(i);
+		}
+		return new State(board);
+	}
+}
@@ -0,0 +1,86 @@
+package board;
+
+/**
+ * The Sequential Probability Ratio Test a match is stopped with: after each
+ * game it weighs how much likelier the results so far are if the test
+ * engine is elo1 stronger than the base engine than if it is only elo0
+ * stronger. The match stops as soon as either hypothesis is accepted, with
+ * false positive and false negative rates of alpha and beta.
+ *
+ * The log-likelihood ratio uses the normal approximation to the
+ * win/draw/loss results that engine testing frameworks use.
+ */
+final class SPRT {
+
+	/** the test has not reached either bound yet */
+	static final int CONTINUE = 0;
+
+	/** the test engine is at least elo1 stronger */
+	static final int ACCEPT_H1 = 1;
+
+	/** the test engine is no more than elo0 stronger */
+	static final int ACCEPT_H0 = -1;
+
+	private final double elo0;
+	private final double elo1;
+
+	/** the log-likelihood ratios at which H0 and H1 are accepted */
+	private final double lowerBound;
+	private final double upperBound;
+
+	SPRT(double elo0, double elo1, double alpha, double beta) {
+		this.elo0 = elo0;
+		this.elo1 = elo1;
+		this.lowerBound = Math.log(beta / (1 - alpha));
+		this.upperBound = Math.log((1 - beta) / alpha);
+	}
+
+	/** @return the log-likelihood ratio of H1 against H0 given the results */
+	double llr(int wins, int draws, int losses) {
+		double games = wins + draws + losses;
+		if (games == 0) {
+			return 0;
+		}
+		double score = (wins + draws / 2.0) / games;
+		double variance = (wins + draws / 4.0) / games - score * score;
+		if (variance <= 0) {
+			// every game has gone the same way, which says nothing yet
+			return 0;
+		}
+		double score0 = expectedScore(elo0);
+		double score1 = expectedScore(elo1);
+		return (score1 - score0) * (2 * score - score0 - score1) / (2 * variance / games);
+	}
+
+	/** @return CONTINUE, ACCEPT_H0 or ACCEPT_H1 */
+	int status(int wins, int draws, int losses) {
+		double llr = llr(wins, draws, losses);
+		if (llr >= upperBound) {
+			return ACCEPT_H1;
+		} else if (llr <= lowerBound) {
+			return ACCEPT_H0;
+		}
+		return CONTINUE;
+	}
+
+	double getLowerBound() {
+		return lowerBound;
+	}
+
+	double getUpperBound() {
+		return upperBound;
+	}
+
+	/** @return the score expected of an engine elo stronger than its opponent */
+	static double expectedScore(double elo) {
+		return 1 / (1 + Math.pow(10, -elo / 400));
+	}
+
+	/** @return the Elo difference a score corresponds to */
+	static double elo(double score) {
+		if (score <= 0 || score >= 1) {
+			return score <= 0 ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY;
+		}
+		return -400 * Math.log10(1 / score - 1);
+	}
+}
@@ -1,89 +1,494 @@
 package board;
 
+import java.util.Arrays;
+
 import cmpt317A2.Tuple;
 
+/**
+ * A game position packed into bitboards. Square (x,y) is bit x*5+y of each
+ * 25-bit occupancy mask, so rule checks are shifts and masks instead of walks
+ * over a char array.
+ */
 public class State {
 
-	private char[][] potentialBoard = new char[5][5];
+	/** occupancy masks for each kind of piece */
+	private int kings;
+	private int guards;
+	private int dragons;
+
 	private boolean dragonsJustMoved;
 	private boolean potentialBoardWins;
-	private Tuple oldPosition = null;
-	private Tuple newPosition = null;
+
+	/** the move that produced this state, Move.NONE if none */
+	private int lastMove = Move.NONE;
+
+	/** the Zobrist hash of the pieces and the side to move */
+	private long hash;
+
+	/** the hash this state would have if mirrored left to right */
+	private long mirrorHash;
+
+	/**
+	 * the parts of the utility function, kept up to date move by move so a
+	 * leaf can be evaluated without looking at the whole board: the number of
+	 * dragons and guards, the number of dragons next to the king and the sum
+	 * of every dragon's distance from the king.
+	 */
+	private int dragonCount;
+	private int guardCount;
+	private int surroundingDragons;
+	private int dragonDistance;
+
+	/**
+	 * what unmakeMove needs to restore, two entries for each move made with
+	 * makeMove. The first holds the previous last move, whether the state was
+	 * marked as a win and the previous dragon counts around and distance from
+	 * the king; the second is the mask of guards the move turned into
+	 * dragons. Allocated on first use, since most states never have a move
+	 * made on them.
+	 */
+	private int[] undoStack;
+	private int undoCount;
+
+	private static final int UNDO_WINS = 1 << Move.BITS;
+	private static final int UNDO_SURROUNDING_SHIFT = Move.BITS + 1;
+	private static final int UNDO_DISTANCE_SHIFT = Move.BITS + 4;
 
 	// Initial static board constructor, used once in Board.java
 	public State(char[][] newBoard) {
-		potentialBoard = newBoard;
+		for (int x = 0; x < 5; x++) {
+			for (int y = 0; y < 5; y++) {
+				setChar(x, y, newBoard[x][y]);
+			}
+		}
 		dragonsJustMoved = false;
 		potentialBoardWins = false;
 	}
 
-	// Constructor, used for deep cloning
-	public State(char[][] newBoard, boolean djm, boolean pbw, Tuple oldPos, Tuple newPos) {
-		potentialBoard = newBoard;
-		dragonsJustMoved = djm;
-		potentialBoardWins = pbw;
-		if (oldPos != null) {
-			oldPosition = oldPos.clone();
+	/**
+	 * Build a state straight from the masks of each kind of piece, as the
+	 * tablebase does for every position it indexes.
+	 */
+	public State(int kings, int guards, int dragons, boolean dragonsJustMoved) {
+		this.kings = kings;
+		this.guards = guards;
+		this.dragons = dragons;
+		this.dragonsJustMoved = dragonsJustMoved;
+		for (int square = 0; square < 25; square++) {
+			int bit = 1 << square;
+			if ((kings & bit) != 0) {
+				hashPiece(Zobrist.KING, square);
+			} else if ((guards & bit) != 0) {
+				hashPiece(Zobrist.GUARD, square);
+			} else if ((dragons & bit) != 0) {
+				hashPiece(Zobrist.DRAGON, square);
+			}
 		}
-		if (newPos != null) {
-			newPosition = newPos.clone();
+		if (dragonsJustMoved) {
+			hashSide();
 		}
+		refreshEvaluation();
 	}
 
 	// Build a new state from a previous state
 	public State(State s) {
-		for (int x = 0; x < 5; x++) {
-			for (int y = 0; y < 5; y++) {
-				setChar(x, y, s.getChar(x, y));
-			}
-		}
-		dragonsJustMoved = s.dragonsJustMoved();
+		kings = s.kings;
+		guards = s.guards;
+		dragons = s.dragons;
+		dragonsJustMoved = s.dragonsJustMoved;
 		potentialBoardWins = false;
+		hash = s.hash;
+		mirrorHash = s.mirrorHash;
+		dragonCount = s.dragonCount;
+		guardCount = s.guardCount;
+		surroundingDragons = s.surroundingDragons;
+		dragonDistance = s.dragonDistance;
 	}
 
 	// Constructor used in successor function
-	public State(State s, Tuple oldPosition, Tuple newPosition, char letter) {
-		for (int x = 0; x < 5; x++) {
-			for (int y = 0; y < 5; y++) {
-				setChar(x, y, s.getChar(x, y));
+	public State(State s, int move) {
+		this(s);
+		applyMove(move);
+		convertGuards(move);
+	}
+
+	/**
+	 * Make a move in place, along with any guards it leaves surrounded by
+	 * dragons turning into dragons. Every makeMove has to be matched by an
+	 * unmakeMove of the same move, in reverse order, to get the original state
+	 * back.
+	 * 
+	 * @param move
+	 *            a legal move for the side to move, packed by Move
+	 */
+	public void makeMove(int move) {
+		if (undoStack == null) {
+			undoStack = new int[128];
+		} else if (undoCount == undoStack.length) {
+			undoStack = Arrays.copyOf(undoStack, undoCount * 2);
+		}
+		undoStack[undoCount++] = applyMove(move);
+		undoStack[undoCount++] = convertGuards(move);
+	}
+
+	/**
+	 * Take back the last move made with makeMove.
+	 * 
+	 * @param move
+	 *            the move being taken back
+	 */
+	public void unmakeMove(int move) {
+		int converted = undoStack[--undoCount];
+		int undo = undoStack[--undoCount];
+		if (converted != 0) {
+			guards |= converted;
+			dragons ^= converted;
+			hashConversion(converted);
+			int count = Integer.bitCount(converted);
+			guardCount += count;
+			dragonCount -= count;
+		}
+
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int fromBit = 1 << from;
+		int toBit = 1 << to;
+
+		switch (Move.piece(move)) {
+		case (Move.KING):
+			kings ^= fromBit | toBit;
+			hashMove(Zobrist.KING, from, to);
+			break;
+		case (Move.GUARD):
+			guards ^= fromBit | toBit;
+			hashMove(Zobrist.GUARD, from, to);
+			break;
+		default:
+			dragons ^= fromBit | toBit;
+			hashMove(Zobrist.DRAGON, from, to);
+		}
+
+		if (Move.isCapture(move)) {
+			dragons |= toBit;
+			hashPiece(Zobrist.DRAGON, to);
+			dragonCount++;
+		}
+
+		surroundingDragons = (undo >>> UNDO_SURROUNDING_SHIFT) & 7;
+		dragonDistance = undo >>> UNDO_DISTANCE_SHIFT;
+		lastMove = undo & ((1 << Move.BITS) - 1);
+		potentialBoardWins = (undo & UNDO_WINS) != 0;
+		dragonsJustMoved = !dragonsJustMoved;
+		hashSide();
+	}
+
+	/**
+	 * Move a piece, capturing any dragon on the square it lands on, and pass
+	 * the turn.
+	 * 
+	 * @return the undo information for unmakeMove
+	 */
+	private int applyMove(int move) {
+		int from = Move.from(move);
+		int to = Move.to(move);
+		int fromBit = 1 << from;
+		int toBit = 1 << to;
+		int kingSquare = getKingSquare();
+		int aroundKing = Bitboard.orthogonal(kings);
+		int undo = lastMove | (surroundingDragons << UNDO_SURROUNDING_SHIFT)
+				| (dragonDistance << UNDO_DISTANCE_SHIFT);
+		if (potentialBoardWins) {
+			undo |= UNDO_WINS;
+		}
+
+		// a king or guard moving onto a dragon captures it
+		if (Move.isCapture(move)) {
+			dragons ^= toBit;
+			hashPiece(Zobrist.DRAGON, to);
+			dragonCount--;
+			dragonDistance -= Bitboard.distance(to, kingSquare);
+			if ((aroundKing & toBit) != 0) {
+				surroundingDragons--;
+			}
+		}
+
+		switch (Move.piece(move)) {
+		case (Move.KING):
+			kings ^= fromBit | toBit;
+			hashMove(Zobrist.KING, from, to);
+			// every distance changes when the king moves
+			dragonDistance = distanceFromKing(to);
+			surroundingDragons = Bitboard.countAround(to, dragons);
+			break;
+		case (Move.GUARD):
+			guards ^= fromBit | toBit;
+			hashMove(Zobrist.GUARD, from, to);
+			break;
+		default:
+			dragons ^= fromBit | toBit;
+			hashMove(Zobrist.DRAGON, from, to);
+			dragonDistance += Bitboard.distance(to, kingSquare) - Bitboard.distance(from, kingSquare);
+			if ((aroundKing & fromBit) != 0) {
+				surroundingDragons--;
+			}
+			if ((aroundKing & toBit) != 0) {
+				surroundingDragons++;
 			}
 		}
-		// No need to clone, passing references here works fine
-		this.oldPosition = oldPosition;
-		this.newPosition = newPosition;
-		
-		potentialBoard[oldPosition.getX()][oldPosition.getY()] = '_';
-		potentialBoard[newPosition.getX()][newPosition.getY()] = letter;
-		dragonsJustMoved = !s.dragonsJustMoved();
+
+		lastMove = move;
 		potentialBoardWins = false;
+		dragonsJustMoved = !dragonsJustMoved;
+		hashSide();
+		return undo;
+	}
+
+	/**
+	 * Turn every guard left with three or more dragons around it into a
+	 * dragon, as Board.checkGuardCapture does after each move of the game.
+	 * Only the guards on or next to the square the move landed on can have
+	 * gained a dragon neighbour. A guard converted here does not go on to
+	 * convert its own neighbours.
+	 * 
+	 * @return the mask of the guards that were converted
+	 */
+	private int convertGuards(int move) {
+		int to = Move.to(move);
+		int candidates = guards & ((1 << to) | Bitboard.neighbours(to));
+		int converted = 0;
+		while (candidates != 0) {
+			int square = Integer.numberOfTrailingZeros(candidates);
+			candidates &= candidates - 1;
+			if (Bitboard.countAround(square, dragons) >= 3) {
+				converted |= 1 << square;
+			}
+		}
+		if (converted == 0) {
+			return 0;
+		}
+
+		guards ^= converted;
+		dragons |= converted;
+		hashConversion(converted);
+		int count = Integer.bitCount(converted);
+		guardCount -= count;
+		dragonCount += count;
+		surroundingDragons += Integer.bitCount(converted & Bitboard.orthogonal(kings));
+		int kingSquare = getKingSquare();
+		for (int remaining = converted; remaining != 0; remaining &= remaining - 1) {
+			dragonDistance += Bitboard.distance(Integer.numberOfTrailingZeros(remaining), kingSquare);
+		}
+		return converted;
+	}
+
+	/**
+	 * Toggle a piece on a square in both the hash and the mirrored hash.
+	 */
+	private void hashPiece(long[] keys, int square) {
+		hash ^= keys[square];
+		mirrorHash ^= keys[Bitboard.mirror(square)];
+	}
+
+	private void hashMove(long[] keys, int from, int to) {
+		hashPiece(keys, from);
+		hashPiece(keys, to);
+	}
+
+	private void hashSide() {
+		hash ^= Zobrist.SIDE;
+		mirrorHash ^= Zobrist.SIDE;
+	}
+
+	/** toggle the given guards between being guards and dragons in the hashes */
+	private void hashConversion(int converted) {
+		for (; converted != 0; converted &= converted - 1) {
+			int square = Integer.numberOfTrailingZeros(converted);
+			hashPiece(Zobrist.GUARD, square);
+			hashPiece(Zobrist.DRAGON, square);
+		}
+	}
+
+	/**
+	 * Recount the utility function's parts from scratch, after the board has
+	 * been edited directly rather than through makeMove.
+	 */
+	private void refreshEvaluation() {
+		dragonCount = Integer.bitCount(dragons);
+		guardCount = Integer.bitCount(guards);
+		int kingSquare = getKingSquare();
+		if (kingSquare < 0) {
+			surroundingDragons = 0;
+			dragonDistance = 0;
+		} else {
+			surroundingDragons = Bitboard.countAround(kingSquare, dragons);
+			dragonDistance = distanceFromKing(kingSquare);
+		}
+	}
+
+	/** @return the sum of every dragon's distance from the given square */
+	private int distanceFromKing(int kingSquare) {
+		int total = 0;
+		int remaining = dragons;
+		while (remaining != 0) {
+			total += Bitboard.distance(Integer.numberOfTrailingZeros(remaining), kingSquare);
+			remaining &= remaining - 1;
+		}
+		return total;
 	}
 
 	public char[][] getBoard() {
-		return potentialBoard.clone();
+		char[][] board = new char[5][5];
+		for (int x = 0; x < 5; x++) {
+			for (int y = 0; y < 5; y++) {
+				board[x][y] = getChar(x, y);
+			}
+		}
+		return board;
 	}
 
 	public char getChar(int x, int y) {
-		return potentialBoard[x][y];
+		int bit = 1 << Bitboard.square(x, y);
+		if ((kings & bit) != 0) {
+			return 'K';
+		} else if ((guards & bit) != 0) {
+			return 'G';
+		} else if ((dragons & bit) != 0) {
+			return 'D';
+		} else {
+			return '_';
+		}
 	}
 
 	public char getChar(Tuple x) {
-		return potentialBoard[x.getX()][x.getY()];
+		return getChar(x.getX(), x.getY());
 	}
-	
+
+	public int getKings() {
+		return kings;
+	}
+
+	public int getGuards() {
+		return guards;
+	}
+
+	public int getDragons() {
+		return dragons;
+	}
+
+	/** @return the mask of squares that hold no piece */
+	public int getEmpty() {
+		return Bitboard.FULL & ~(kings | guards | dragons);
+	}
+
+	public int getDragonCount() {
+		return dragonCount;
+	}
+
+	public int getGuardCount() {
+		return guardCount;
+	}
+
+	/** @return the number of dragons horizontally or vertically next to the king */
+	public int getSurroundingDragons() {
+		return surroundingDragons;
+	}
+
+	/** @return the sum of the distances from each dragon to the king */
+	public int getDragonDistance() {
+		return dragonDistance;
+	}
+
+	/** @return the square the king stands on, or -1 if there is no king */
+	public int getKingSquare() {
+		return kings == 0 ? -1 : Integer.numberOfTrailingZeros(kings);
+	}
+
+	/**
+	 * @return the move of the piece on one square to another, packed by Move
+	 *         with the piece and whether it captures a dragon, or Move.NONE if
+	 *         the square is empty
+	 */
+	public int moveOf(int from, int to) {
+		int fromBit = 1 << from;
+		int piece;
+		if ((kings & fromBit) != 0) {
+			piece = Move.KING;
+		} else if ((guards & fromBit) != 0) {
+			piece = Move.GUARD;
+		} else if ((dragons & fromBit) != 0) {
+			piece = Move.DRAGON;
+		} else {
+			return Move.NONE;
+		}
+		return (dragons & (1 << to)) != 0 ? Move.capture(from, to, piece) : Move.of(from, to, piece);
+	}
+
+	/** @return the move that produced this state, Move.NONE if none */
+	public int getLastMove() {
+		return lastMove;
+	}
+
+	public long getHash() {
+		return hash;
+	}
+
+	/**
+	 * @return the same hash for a position and its mirror image, so searches
+	 *         and caches can share results between the two
+	 */
+	public long getCanonicalHash() {
+		return Math.min(hash, mirrorHash);
+	}
+
+	/**
+	 * @return true if this state's canonical hash is the hash of its mirror
+	 *         image, so moves stored under it are mirrored
+	 */
+	public boolean isMirrored() {
+		return mirrorHash < hash;
+	}
+
+	/** @return true if the position is the same mirrored left to right */
+	public boolean isSymmetric() {
+		return kings == Bitboard.mirrorMask(kings) && guards == Bitboard.mirrorMask(guards)
+				&& dragons == Bitboard.mirrorMask(dragons);
+	}
+
 	public Tuple getOldPosition() {
-		return oldPosition;
+		return lastMove == Move.NONE ? null : Bitboard.toTuple(Move.from(lastMove));
 	}
 
 	public Tuple getNewPosition() {
-		return newPosition;
+		return lastMove == Move.NONE ? null : Bitboard.toTuple(Move.to(lastMove));
 	}
 
 	public void setChar(int x, int y, char newChar) {
-		potentialBoard[x][y] = newChar;
+		int square = Bitboard.square(x, y);
+		int bit = 1 << square;
+		int mirror = Bitboard.mirror(square);
+		hash ^= Zobrist.key(getChar(x, y), square) ^ Zobrist.key(newChar, square);
+		mirrorHash ^= Zobrist.key(getChar(x, y), mirror) ^ Zobrist.key(newChar, mirror);
+		kings &= ~bit;
+		guards &= ~bit;
+		dragons &= ~bit;
+		switch (newChar) {
+		case ('K'):
+			kings |= bit;
+			break;
+		case ('G'):
+			guards |= bit;
+			break;
+		case ('D'):
+			dragons |= bit;
+			break;
+		default:
+			break;
+		}
+		refreshEvaluation();
 	}
 
 	public void setChar(Tuple x, char newChar) {
-		potentialBoard[x.getX()][x.getY()] = newChar;
+		setChar(x.getX(), x.getY(), newChar);
 	}
 
 	public boolean dragonsJustMoved() {
@@ -92,6 +497,7 @@ public class State {
 
 	public void nextTurn() {
 		dragonsJustMoved = !dragonsJustMoved;
+		hashSide();
 	}
 
 	public boolean potentialBoardWins() {
@@ -106,15 +512,17 @@ public class State {
 		String returnString = "";
 		for(int i = 0; i < 5; i++){
 			for(int k = 0; k < 5; k++){
-				returnString += potentialBoard[i][k];
+				returnString += getChar(i, k);
 			}
 		}
 		return returnString;
 	}
-	
+
 	public State clone() {
-		char[][] newBoard = this.getBoard();
-		return new State(newBoard, dragonsJustMoved, potentialBoardWins, oldPosition, newPosition);
+		State copy = new State(this);
+		copy.potentialBoardWins = potentialBoardWins;
+		copy.lastMove = lastMove;
+		return copy;
 	}
 
 	public String toString() {
@@ -123,15 +531,15 @@ public class State {
 		for (int i = 0; i < 5; i++) {
 			returnString += (i + " ");
 			for (int k = 0; k < 5; k++) {
-				returnString += (potentialBoard[i][k] + " ");
+				returnString += (getChar(i, k) + " ");
 			}
 			returnString += "\n";
 		}
 
 		returnString += "Dragons Just Moved: " + dragonsJustMoved;
 		returnString += "\nPotential Board wins: " + potentialBoardWins;
-		returnString += "\nOld Position is: " + oldPosition;
-		returnString += "\nNew Position is: " + newPosition;
+		returnString += "\nOld Position is: " + getOldPosition();
+		returnString += "\nNew Position is: " + getNewPosition();
 		returnString += "\n~~~~~~~~~~\n";
 
 		return returnString;
@@ -0,0 +1,162 @@
+package board;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * The exact result of every position with few enough pieces, as worked out
+ * by TablebaseGenerator and read straight from the file it writes through a
+ * memory map. A position is covered when its guards and dragons add up to no
+ * more than the number the file was generated for.
+ *
+ * The file starts with a header of MAGIC and the number of pieces covered,
+ * followed by the entries of each material class in the order classes()
+ * lists them. Each entry is two bytes: the outcome in the top two bits and
+ * the number of moves until the game ends in the rest.
+ */
+public class Tablebase {
+
+	static final int MAGIC = 0x4D4B5442;
+
+	/** the length of the header in bytes */
+	static final int HEADER_SIZE = 8;
+
+	/** neither side can force a win */
+	public static final int DRAW = 0;
+
+	/** the dragons can force a win */
+	public static final int DRAGONS_WIN = 1;
+
+	/** the king can force a win */
+	public static final int KING_WINS = 2;
+
+	/** the most guards there are in the game */
+	static final int MAX_GUARDS = 3;
+
+	/** the most moves to the end of the game an entry can hold */
+	static final int MAX_DISTANCE = (1 << 14) - 1;
+
+	/** the utility of a position won outright, as Board.utility gives it */
+	private static final int WIN_SCORE = 1000;
+
+	private final int maxPieces;
+
+	/** the index and entries of each class, by number of guards and dragons */
+	private final TablebaseIndex[][] indexes;
+	private final MappedByteBuffer[][] entries;
+
+	private Tablebase(int maxPieces) {
+		this.maxPieces = maxPieces;
+		this.indexes = new TablebaseIndex[MAX_GUARDS + 1][maxPieces + 1];
+		this.entries = new MappedByteBuffer[MAX_GUARDS + 1][maxPieces + 1];
+	}
+
+	/**
+	 * Map a tablebase file into memory.
+	 *
+	 * @param fileName
+	 *            the file written by TablebaseGenerator
+	 */
+	public static Tablebase open(String fileName) throws IOException {
+		try (RandomAccessFile file = new RandomAccessFile(fileName, "r")) {
+			if (file.readInt() != MAGIC) {
+				throw new IOException(fileName + " is not an endgame tablebase");
+			}
+			Tablebase tablebase = new Tablebase(file.readInt());
+			ArrayList<TablebaseIndex> classes;
+			try {
+				classes = classes(tablebase.maxPieces);
+			} catch (IllegalArgumentException e) {
+				throw new IOException(fileName + " covers classes too big to map", e);
+			}
+
+			// the mappings stay valid once the file is closed
+			FileChannel channel = file.getChannel();
+			long offset = HEADER_SIZE;
+			for (TablebaseIndex index : classes) {
+				long length = 2L * index.size();
+				tablebase.indexes[index.guards()][index.dragons()] = index;
+				tablebase.entries[index.guards()][index.dragons()] = channel.map(FileChannel.MapMode.READ_ONLY,
+						offset, length);
+				offset += length;
+			}
+			if (offset != channel.size()) {
+				throw new IOException(fileName + " is not the size its header says");
+			}
+			return tablebase;
+		}
+	}
+
+	/**
+	 * @return every material class with at most maxPieces guards and dragons
+	 *         together, in the order they are generated and stored. A capture
+	 *         or conversion only ever leads to a class earlier in the list.
+	 * @throws IllegalArgumentException
+	 *             if a class has more than TablebaseIndex.MAX_POSITIONS
+	 *             positions
+	 */
+	static ArrayList<TablebaseIndex> classes(int maxPieces) {
+		ArrayList<TablebaseIndex> classes = new ArrayList<TablebaseIndex>();
+		for (int guards = 0; guards <= Math.min(MAX_GUARDS, maxPieces); guards++) {
+			for (int dragons = 0; guards + dragons <= maxPieces; dragons++) {
+				classes.add(new TablebaseIndex(guards, dragons));
+			}
+		}
+		return classes;
+	}
+
+	/** @return the most guards and dragons together a covered position has */
+	public int getMaxPieces() {
+		return maxPieces;
+	}
+
+	/** @return true if the tablebase holds the result of s */
+	public boolean covers(State s) {
+		return s.getGuardCount() + s.getDragonCount() <= maxPieces && s.getGuardCount() <= MAX_GUARDS;
+	}
+
+	/**
+	 * @param s
+	 *            a position the tablebase covers
+	 * @return the packed entry for s
+	 */
+	public int probe(State s) {
+		TablebaseIndex index = indexes[s.getGuardCount()][s.getDragonCount()];
+		// no class has more than MAX_POSITIONS, so the offset fits in an int
+		return entries[s.getGuardCount()][s.getDragonCount()].getShort(2 * index.index(s)) & 0xFFFF;
+	}
+
+	/**
+	 * @return the exact value of s from the dragons' point of view, on the
+	 *         same scale as Board.utility: a win is worth 1000 less the
+	 *         number of moves it takes
+	 */
+	public int score(State s) {
+		int entry = probe(s);
+		switch (outcome(entry)) {
+		case (DRAGONS_WIN):
+			return WIN_SCORE - distance(entry);
+		case (KING_WINS):
+			return distance(entry) - WIN_SCORE;
+		default:
+			return 0;
+		}
+	}
+
+	static int entry(int outcome, int distance) {
+		return (outcome << 14) | distance;
+	}
+
+	/** @return DRAW, DRAGONS_WIN or KING_WINS */
+	public static int outcome(int entry) {
+		return entry >>> 14;
+	}
+
+	/** @return the number of moves until the game ends with best play */
+	public static int distance(int entry) {
+		return entry & MAX_DISTANCE;
+	}
+}
@@ -0,0 +1,362 @@
+package board;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+/**
+ * Works out the exact result of every position with few enough pieces by
+ * retrograde analysis, and writes them to a file for Tablebase to read.
+ *
+ * Each material class (number of guards and dragons) is solved in turn. A
+ * capture or conversion always leads to a class that has already been
+ * solved, so those moves are looked up. Within the class, the solved
+ * positions are walked back from the finished games in order of distance.
+ * Each is taken back a move at a time with the unmove generator. A position
+ * with a move to a win for its side to move is won one move later. A
+ * position is lost once every one of its moves has been found to lose.
+ * Whatever is left when nothing more can be resolved is a draw.
+ *
+ * Both passes over a class are split across every core.
+ */
+public class TablebaseGenerator {
+
+	/** how many positions of a distance each parallel task takes back */
+	private static final int CHUNK = 4096;
+
+	/*
+	 * Each position's progress is one int: the outcome once it is known in
+	 * the top bits, then its distance, then the number of moves still
+	 * unresolved. Until the outcome is known the distance holds the longest
+	 * loss among the moves into classes already solved.
+	 */
+	private static final int COUNT_MASK = 0xFF;
+	private static final int DISTANCE_SHIFT = 8;
+	private static final int OUTCOME_SHIFT = 22;
+
+	/** marks a bucket entry as a win found through another class */
+	private static final int PENDING = 1 << 31;
+
+	private final Board gameBoard;
+	private final int maxPieces;
+
+	/** the index and entries of every class solved so far */
+	private final TablebaseIndex[][] indexes;
+	private final short[][][] solved;
+
+	/**
+	 * @throws IllegalArgumentException
+	 *             if maxPieces takes in a class too big for a tablebase file
+	 */
+	public TablebaseGenerator(Board b, int maxPieces) {
+		// check every class can be stored before spending any time solving
+		Tablebase.classes(maxPieces);
+		this.gameBoard = b;
+		this.maxPieces = maxPieces;
+		this.indexes = new TablebaseIndex[Tablebase.MAX_GUARDS + 1][maxPieces + 1];
+		this.solved = new short[Tablebase.MAX_GUARDS + 1][maxPieces + 1][];
+	}
+
+	/**
+	 * Solve every class and write them to a file.
+	 */
+	public void generate(String fileName) throws IOException {
+		ArrayList<TablebaseIndex> classes = Tablebase.classes(maxPieces);
+		for (TablebaseIndex index : classes) {
+			long start = System.currentTimeMillis();
+			indexes[index.guards()][index.dragons()] = index;
+			solved[index.guards()][index.dragons()] = solve(index);
+			System.out.println("Solved " + index.guards() + " guards and " + index.dragons() + " dragons: "
+					+ index.size() + " positions in " + (System.currentTimeMillis() - start) + "ms");
+		}
+
+		try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(fileName)))) {
+			out.writeInt(Tablebase.MAGIC);
+			out.writeInt(maxPieces);
+			for (TablebaseIndex index : classes) {
+				for (short entry : solved[index.guards()][index.dragons()]) {
+					out.writeShort(entry);
+				}
+			}
+		}
+	}
+
+	private short[] solve(TablebaseIndex index) {
+		int size = index.size();
+		AtomicIntegerArray work = new AtomicIntegerArray(size);
+		int[] pendingWins = new int[size];
+		IntStream.range(0, size).parallel().forEach(i -> initialise(index, i, work, pendingWins));
+
+		ArrayList<IntList> buckets = new ArrayList<IntList>();
+		for (int i = 0; i < size; i++) {
+			int progress = work.get(i);
+			if (outcome(progress) != Tablebase.DRAW) {
+				bucket(buckets, distance(progress)).add(i);
+			} else if (pendingWins[i] > 0) {
+				bucket(buckets, pendingWins[i]).add(i | PENDING);
+			}
+		}
+
+		// every position resolved from a bucket is further away, so the
+		// bucket being taken back never grows
+		for (int distance = 0; distance < buckets.size(); distance++) {
+			IntList bucket = buckets.get(distance);
+			int n = distance;
+			List<IntList> found = IntStream.range(0, (bucket.size + CHUNK - 1) / CHUNK).parallel()
+					.mapToObj(chunk -> takeBack(index, bucket, chunk * CHUNK,
+							Math.min(bucket.size, (chunk + 1) * CHUNK), n, work))
+					.collect(Collectors.toList());
+			for (IntList resolved : found) {
+				for (int i = 0; i < resolved.size; i += 2) {
+					bucket(buckets, resolved.values[i + 1]).add(resolved.values[i]);
+				}
+			}
+		}
+
+		short[] entries = new short[size];
+		for (int i = 0; i < size; i++) {
+			int progress = work.get(i);
+			if (outcome(progress) != Tablebase.DRAW) {
+				entries[i] = (short) Tablebase.entry(outcome(progress), distance(progress));
+			}
+		}
+		return entries;
+	}
+
+	/**
+	 * Set up a position's progress: resolved straight away if the game is
+	 * over, otherwise the count of its moves within the class along with what
+	 * its moves into other classes lead to.
+	 */
+	private void initialise(TablebaseIndex index, int i, AtomicIntegerArray work, int[] pendingWins) {
+		State s = index.state(i);
+		if (gameBoard.isWinner(s)) {
+			int winner = gameBoard.dragonsWin(s, s.getKingSquare()) ? Tablebase.DRAGONS_WIN : Tablebase.KING_WINS;
+			work.set(i, resolved(winner, 0));
+			return;
+		}
+
+		int[] moves = gameBoard.moves(s);
+		if (moves.length == 0) {
+			// a count that never runs out leaves the position a draw
+			work.set(i, 1);
+			return;
+		}
+
+		int moverWins = s.dragonsJustMoved() ? Tablebase.KING_WINS : Tablebase.DRAGONS_WIN;
+		int count = 0;
+		int quickestWin = 0;
+		int longestLoss = 0;
+		boolean drawn = false;
+		for (int move : moves) {
+			s.makeMove(move);
+			int guards = s.getGuardCount();
+			int dragons = s.getDragonCount();
+			if (guards == index.guards() && dragons == index.dragons()) {
+				count++;
+			} else {
+				int entry = solved[guards][dragons][indexes[guards][dragons].index(s)] & 0xFFFF;
+				int distance = Tablebase.distance(entry);
+				if (Tablebase.outcome(entry) == moverWins) {
+					quickestWin = quickestWin == 0 ? distance + 1 : Math.min(quickestWin, distance + 1);
+				} else if (Tablebase.outcome(entry) == Tablebase.DRAW) {
+					drawn = true;
+				} else {
+					longestLoss = Math.max(longestLoss, distance);
+				}
+			}
+			s.unmakeMove(move);
+		}
+
+		if (drawn || quickestWin > 0) {
+			// a drawing or winning move means the position is never lost
+			count++;
+		}
+		if (quickestWin > 0) {
+			pendingWins[i] = quickestWin;
+		} else if (count == 0) {
+			work.set(i, resolved(Tablebase.DRAGONS_WIN + Tablebase.KING_WINS - moverWins, longestLoss + 1));
+			return;
+		}
+		work.set(i, (longestLoss << DISTANCE_SHIFT) | count);
+	}
+
+	/**
+	 * Take back the moves into some of the positions resolved at a distance.
+	 *
+	 * @return pairs of the positions this resolved and their distances
+	 */
+	private IntList takeBack(TablebaseIndex index, IntList bucket, int from, int to, int distance,
+			AtomicIntegerArray work) {
+		IntList resolved = new IntList();
+		IntList predecessors = new IntList();
+		for (int b = from; b < to; b++) {
+			int i = bucket.values[b] & ~PENDING;
+			if ((bucket.values[b] & PENDING) != 0) {
+				// a win through another class, unless a quicker one was found
+				int moverWins = index.dragonsToMove(i) ? Tablebase.DRAGONS_WIN : Tablebase.KING_WINS;
+				if (!claim(work, i, resolved(moverWins, distance))) {
+					continue;
+				}
+			}
+
+			int outcome = outcome(work.get(i));
+			State p = index.state(i);
+			// the side that just moved into p is the one to move before it
+			int predecessorWins = p.dragonsJustMoved() ? Tablebase.DRAGONS_WIN : Tablebase.KING_WINS;
+			predecessors.size = 0;
+			predecessors(p, index, predecessors);
+
+			for (int j = 0; j < predecessors.size; j++) {
+				int q = predecessors.values[j];
+				while (true) {
+					int progress = work.get(q);
+					if (outcome(progress) != Tablebase.DRAW) {
+						break;
+					}
+					int next;
+					int resolvedDistance = -1;
+					if (outcome == predecessorWins) {
+						resolvedDistance = distance + 1;
+						next = resolved(outcome, resolvedDistance);
+					} else if ((progress & COUNT_MASK) == 1) {
+						// every move loses, so q lasts as long as the longest
+						resolvedDistance = 1 + Math.max(distance, distance(progress));
+						next = resolved(outcome, resolvedDistance);
+					} else {
+						next = progress - 1;
+					}
+					if (work.compareAndSet(q, progress, next)) {
+						if (resolvedDistance >= 0) {
+							resolved.add(q);
+							resolved.add(resolvedDistance);
+						}
+						break;
+					}
+				}
+			}
+		}
+		return resolved;
+	}
+
+	/**
+	 * The unmove generator: every position in the class with a move, neither
+	 * capturing nor converting, that leads to p.
+	 */
+	private void predecessors(State p, TablebaseIndex index, IntList out) {
+		int kings = p.getKings();
+		int guards = p.getGuards();
+		int dragons = p.getDragons();
+		int empty = p.getEmpty();
+		boolean dragonsMoved = p.dragonsJustMoved();
+
+		int movers = dragonsMoved ? dragons : (kings | guards);
+		while (movers != 0) {
+			int to = Integer.numberOfTrailingZeros(movers);
+			int toBit = 1 << to;
+			movers &= movers - 1;
+			if (convertsAround(toBit, guards, dragons)) {
+				// a move onto this square would have converted a guard
+				continue;
+			}
+
+			if ((dragons & toBit) != 0) {
+				int froms = (Bitboard.neighbours(to) | Bitboard.diagonals(to)) & empty;
+				for (; froms != 0; froms &= froms - 1) {
+					out.add(index.index(kings, guards, dragons ^ toBit ^ (froms & -froms), true));
+				}
+			} else if ((guards & toBit) != 0) {
+				int froms = Bitboard.neighbours(to) & empty;
+				for (; froms != 0; froms &= froms - 1) {
+					out.add(index.index(kings, guards ^ toBit ^ (froms & -froms), dragons, false));
+				}
+			} else {
+				// the king either stepped or jumped a guard
+				int froms = (Bitboard.neighbours(to) | Bitboard.jumps(to, guards)) & empty;
+				for (; froms != 0; froms &= froms - 1) {
+					out.add(index.index(kings ^ toBit ^ (froms & -froms), guards, dragons, false));
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return true if a guard on or next to the square has three dragons
+	 *         around it, as State.makeMove would have converted
+	 */
+	private static boolean convertsAround(int toBit, int guards, int dragons) {
+		int candidates = guards & (toBit | Bitboard.orthogonal(toBit));
+		for (; candidates != 0; candidates &= candidates - 1) {
+			if (Bitboard.countAround(Integer.numberOfTrailingZeros(candidates), dragons) >= 3) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/** resolve a position unless it already has been */
+	private static boolean claim(AtomicIntegerArray work, int i, int value) {
+		while (true) {
+			int progress = work.get(i);
+			if (outcome(progress) != Tablebase.DRAW) {
+				return false;
+			}
+			if (work.compareAndSet(i, progress, value)) {
+				return true;
+			}
+		}
+	}
+
+	private static IntList bucket(ArrayList<IntList> buckets, int distance) {
+		while (buckets.size() <= distance) {
+			buckets.add(new IntList());
+		}
+		return buckets.get(distance);
+	}
+
+	private static int resolved(int outcome, int distance) {
+		if (distance > Tablebase.MAX_DISTANCE) {
+			throw new IllegalStateException("A game lasts too long to store in the tablebase");
+		}
+		return (outcome << OUTCOME_SHIFT) | (distance << DISTANCE_SHIFT);
+	}
+
+	private static int outcome(int progress) {
+		return progress >>> OUTCOME_SHIFT;
+	}
+
+	private static int distance(int progress) {
+		return (progress >>> DISTANCE_SHIFT) & ((1 << (OUTCOME_SHIFT - DISTANCE_SHIFT)) - 1);
+	}
+
+	/** a growable list of ints */
+	private static class IntList {
+		private int[] values = new int[16];
+		private int size;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+	}
+
+	/**
+	 * @param args
+	 *            the file to write, "endgame.tb" by default, and the most
+	 *            guards and dragons together to cover, 4 by default
+	 */
+	public static void main(String[] args) throws IOException {
+		String fileName = args.length > 0 ? args[0] : "endgame.tb";
+		int maxPieces = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+		new TablebaseGenerator(new Board(), maxPieces).generate(fileName);
+	}
+}
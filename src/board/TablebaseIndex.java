@@ -0,0 +1,137 @@
+package board;
+
+/**
+ * Numbers every position with a given number of guards and dragons, so each
+ * one has its own slot in the tablebase. The index is built from the side to
+ * move, the king's square, which of the other 24 squares hold the guards and
+ * which of the squares left hold the dragons. Each set of squares is numbered
+ * by the combinatorial number system, so no index is wasted on an impossible
+ * placement.
+ */
+final class TablebaseIndex {
+
+	/**
+	 * the most positions a class can have. Each takes two bytes in the file,
+	 * and a class's entries are mapped as one buffer, which can't reach 2GB,
+	 * so the offset of every entry has to fit in an int.
+	 */
+	static final int MAX_POSITIONS = Integer.MAX_VALUE / 2;
+
+	/** CHOOSE[n][k] is the number of ways to pick k of n squares */
+	private static final int[][] CHOOSE = new int[26][26];
+
+	static {
+		for (int n = 0; n < 26; n++) {
+			CHOOSE[n][0] = 1;
+			for (int k = 1; k <= n; k++) {
+				CHOOSE[n][k] = CHOOSE[n - 1][k - 1] + CHOOSE[n - 1][k];
+			}
+		}
+	}
+
+	private final int guards;
+	private final int dragons;
+	private final int guardPlacements;
+	private final int dragonPlacements;
+	private final int size;
+
+	TablebaseIndex(int guards, int dragons) {
+		this.guards = guards;
+		this.dragons = dragons;
+		this.guardPlacements = CHOOSE[24][guards];
+		this.dragonPlacements = CHOOSE[24 - guards][dragons];
+		long positions = 2L * 25 * guardPlacements * dragonPlacements;
+		if (positions > MAX_POSITIONS) {
+			throw new IllegalArgumentException(
+					"Too many positions with " + guards + " guards and " + dragons + " dragons to index");
+		}
+		this.size = (int) positions;
+	}
+
+	/** @return the number of positions indexed */
+	int size() {
+		return size;
+	}
+
+	/** @return true if the dragons are to move in the indexed position */
+	boolean dragonsToMove(int index) {
+		return index < size / 2;
+	}
+
+	int guards() {
+		return guards;
+	}
+
+	int dragons() {
+		return dragons;
+	}
+
+	/**
+	 * @return the index of the state, which must have this many guards and
+	 *         dragons
+	 */
+	int index(State s) {
+		return index(s.getKings(), s.getGuards(), s.getDragons(), !s.dragonsJustMoved());
+	}
+
+	int index(int kings, int guardMask, int dragonMask, boolean dragonsToMove) {
+		int side = dragonsToMove ? 0 : 1;
+		int king = Integer.numberOfTrailingZeros(kings);
+		int guardRank = rank(guardMask, kings);
+		int dragonRank = rank(dragonMask, kings | guardMask);
+		return ((side * 25 + king) * guardPlacements + guardRank) * dragonPlacements + dragonRank;
+	}
+
+	/** @return the position with the given index */
+	State state(int index) {
+		int dragonRank = index % dragonPlacements;
+		index /= dragonPlacements;
+		int guardRank = index % guardPlacements;
+		index /= guardPlacements;
+		int kings = 1 << (index % 25);
+		boolean dragonsToMove = index / 25 == 0;
+
+		int guardMask = unrank(guardRank, guards, kings);
+		int dragonMask = unrank(dragonRank, dragons, kings | guardMask);
+		return new State(kings, guardMask, dragonMask, !dragonsToMove);
+	}
+
+	/**
+	 * @return the number of the set of squares in mask among every set of
+	 *         the same size drawn from the squares outside occupied
+	 */
+	private static int rank(int mask, int occupied) {
+		int rank = 0;
+		int picked = 0;
+		for (; mask != 0; mask &= mask - 1) {
+			int square = Integer.numberOfTrailingZeros(mask);
+			// number the squares left free by occupied from 0 up
+			int free = square - Integer.bitCount(occupied & ((1 << square) - 1));
+			rank += CHOOSE[free][++picked];
+		}
+		return rank;
+	}
+
+	/** @return the set of count squares outside occupied numbered rank */
+	private static int unrank(int rank, int count, int occupied) {
+		int[] freeSquares = new int[25];
+		int free = 0;
+		for (int square = 0; square < 25; square++) {
+			if ((occupied & (1 << square)) == 0) {
+				freeSquares[free++] = square;
+			}
+		}
+
+		int mask = 0;
+		int highest = free - 1;
+		for (int picked = count; picked > 0; picked--) {
+			while (CHOOSE[highest][picked] > rank) {
+				highest--;
+			}
+			rank -= CHOOSE[highest][picked];
+			mask |= 1 << freeSquares[highest];
+			highest--;
+		}
+		return mask;
+	}
+}
@@ -0,0 +1,53 @@
+package board;
+
+import java.util.Random;
+
+/**
+ * Random keys for Zobrist hashing of a State. A position's hash is the XOR of
+ * the key of every piece on its square, plus SIDE when the dragons just moved,
+ * so a move only has to XOR out the squares it empties and XOR in the squares
+ * it fills.
+ */
+public final class Zobrist {
+
+	/** a fixed seed so hashes are the same from run to run */
+	private static final long SEED = 0x317A2L;
+
+	public static final long[] KING = new long[25];
+	public static final long[] GUARD = new long[25];
+	public static final long[] DRAGON = new long[25];
+	public static final long SIDE;
+
+	static {
+		Random random = new Random(SEED);
+		for (int square = 0; square < 25; square++) {
+			KING[square] = random.nextLong();
+			GUARD[square] = random.nextLong();
+			DRAGON[square] = random.nextLong();
+		}
+		SIDE = random.nextLong();
+	}
+
+	private Zobrist() {
+	}
+
+	/**
+	 * @param letter
+	 *            the letter of a piece, 'K', 'G' or 'D'
+	 * @param square
+	 *            the square the piece is on
+	 * @return the key for that piece on that square, 0 for an empty tile
+	 */
+	public static long key(char letter, int square) {
+		switch (letter) {
+		case ('K'):
+			return KING[square];
+		case ('G'):
+			return GUARD[square];
+		case ('D'):
+			return DRAGON[square];
+		default:
+			return 0;
+		}
+	}
+}
@@ -1,97 +1,221 @@
-package search;
-
-import java.util.Iterator;
-import java.util.LinkedList;
-
-import board.Board;
-import board.State;
-import cmpt317A2.GameNode;
-
-public class AlphaBeta extends Search {
-
-	public AlphaBeta(Board b) {
-		this.gameBoard = b;
-		this.depthLimit = 8;
-	}
-	
-	public GameNode alphaBeta(GameNode s, boolean MaxStarts, boolean AIisDragon) {
-
-		if (MaxStarts) {
-			return alphaBetaMax(s.clone(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, AIisDragon);
-		} else {
-			return alphaBetaMin(s.clone(), Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, AIisDragon);
-		}
-	}
-
-	private GameNode alphaBetaMax(GameNode s, Double alpha, Double beta, boolean AIisDragon) {
-		if ((gameBoard.terminalState(s.getState()) ) || (s.getDepth() == depthLimit)) {
-			if (AIisDragon) {
-				s.setValue(gameBoard.utility(s.getState()));
-			} else {
-				// Might need to do something more appropriate here if AI is playing as king
-				s.setValue(-1 * gameBoard.utility(s.getState()));
-			}
-			
-			return s;
-		}
-
-		LinkedList<State> successors = gameBoard.successors(s.getState());
-		GameNode best = null;
-		double bestValue = Double.NEGATIVE_INFINITY;
-		Iterator<State> it = successors.iterator();
-
-		while (it.hasNext()) {
-			State current = it.next();
-			GameNode curr = new GameNode(current, 0, s.getDepth() + 1);
-			GameNode n = alphaBetaMin(curr, alpha, beta, AIisDragon);
-			if (n.getValue() > bestValue) {
-				bestValue = n.getValue();
-				best = curr.clone();
-				best.setValue(bestValue);
-			}
-			
-			if (bestValue >= beta){
-				break;
-			}
-			
-			alpha = Math.max(alpha, bestValue);
-		}
-		return best;
-	}
-
-	private GameNode alphaBetaMin(GameNode s, Double alpha, Double beta, boolean AIisDragon) {
-		if ((gameBoard.terminalState(s.getState()) ) || (s.getDepth() == depthLimit)) {
-			if (AIisDragon) {
-				s.setValue(gameBoard.utility(s.getState()));
-			} else {
-				// Might need to do something more appropriate here if AI is playing as king
-				s.setValue(-1 * gameBoard.utility(s.getState()));
-			}
-			
-			return s;
-		}
-		
-		LinkedList<State> successors = gameBoard.successors(s.getState());
-		GameNode best = null;
-		double bestValue = Double.POSITIVE_INFINITY;
-		Iterator<State> it = successors.iterator();
-
-		while (it.hasNext()) {
-			State current = it.next();
-			GameNode curr = new GameNode(current, 0, s.getDepth() + 1);
-			GameNode n = alphaBetaMax(curr, alpha, beta, AIisDragon);
-			if (n.getValue() < bestValue) {
-				bestValue = n.getValue();
-				best = curr.clone();
-				best.setValue(bestValue);
-			}
-			
-			if (bestValue <= alpha){
-				break;
-			}
-			
-			beta = Math.min(beta, bestValue);
-		}
-		return best;
-	}
-}
\ No newline at end of file
+package search;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import board.Board;
+import board.Move;
+import board.State;
+import cmpt317A2.GameNode;
+
+public class AlphaBeta extends TableSearch {
+
+	public AlphaBeta(Board b) {
+		this(b, 0);
+	}
+
+	/**
+	 * @param timeBudget
+	 *            the time in milliseconds iterativeDeepening may spend on each
+	 *            move
+	 */
+	public AlphaBeta(Board b, long timeBudget) {
+		super(b, timeBudget, new TranspositionTable(TABLE_SIZE), new AtomicBoolean());
+	}
+
+	/**
+	 * A search that shares its transposition table with other searches of the
+	 * same root, as the threads of a LazySMP search do.
+	 *
+	 * @param stop
+	 *            set by another thread to end iterativeDeepening early
+	 */
+	AlphaBeta(Board b, long timeBudget, TranspositionTable table, AtomicBoolean stop) {
+		super(b, timeBudget, table, stop);
+	}
+
+	/**
+	 * Search by iterative deepening until the time budget runs out.
+	 *
+	 * @see TableSearch#timedSearch
+	 */
+	public SearchResult iterativeDeepening(GameNode s, boolean AIisDragon) {
+		return timedSearch(s.getState().clone(), AIisDragon);
+	}
+
+	public GameNode alphaBeta(GameNode s, boolean MaxStarts, boolean AIisDragon) {
+		startFixedDepth();
+		State state = s.getState().clone();
+		double value;
+		if (MaxStarts) {
+			value = alphaBetaMax(state, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, AIisDragon);
+		} else {
+			value = alphaBetaMin(state, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, AIisDragon);
+		}
+		statistics.finish(depthLimit, value);
+		return rootResult(state, value);
+	}
+
+	protected double searchRoot(State root, boolean AIisDragon) {
+		return alphaBetaMax(root, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, AIisDragon);
+	}
+
+	// The two mutually recursive functions make each move on the one state
+	// they are given and take it back before trying the next
+	private double alphaBetaMax(State s, int depth, double alpha, double beta, boolean AIisDragon) {
+		if (outOfTime()) {
+			return 0;
+		}
+		statistics.node();
+
+		if (depth == 0) {
+			rootMove = Move.NONE;
+		}
+
+		if (repeated(s, depth)) {
+			return drawValue();
+		}
+
+		if (gameBoard.isWinner(s)) {
+			return evaluate(s, AIisDragon);
+		}
+
+		if (depth > 0 && inTablebase(s)) {
+			return tablebaseValue(s, AIisDragon);
+		}
+
+		if (depth == depthLimit) {
+			return quiesce(s, alpha, beta, AIisDragon);
+		}
+
+		long entry = table.probe(s);
+		if (depth > 0 && tableCutoff(entry, depthLimit - depth, alpha, beta, AIisDragon)) {
+			return tableValue(entry, AIisDragon);
+		}
+
+		double alphaOriginal = alpha;
+		MoveGenerator generator = generatorAt(depth);
+		generator.reset(s, TranspositionTable.move(entry, s));
+		int move = generator.next();
+		if (move == Move.NONE) {
+			// no moves from here, so the game is a draw
+			return evaluate(s, AIisDragon);
+		}
+
+		int bestMove = Move.NONE;
+		double bestValue = Double.NEGATIVE_INFINITY;
+
+		int searched = 0;
+		for (; move != Move.NONE; move = generator.next()) {
+			if (depth == 0 && mirroredDuplicate(s, move)) {
+				continue;
+			}
+			searched++;
+			s.makeMove(move);
+			double value = alphaBetaMin(s, depth + 1, alpha, beta, AIisDragon);
+			s.unmakeMove(move);
+			if (value > bestValue) {
+				bestValue = value;
+				bestMove = move;
+				if (depth == 0) {
+					rootMove = move;
+				}
+			}
+
+			if (bestValue >= beta){
+				statistics.cutoff(searched == 1);
+				ordering.recordCutoff(move, depthLimit - depth);
+				break;
+			}
+
+			alpha = Math.max(alpha, bestValue);
+		}
+
+		storeTable(s, depthLimit - depth, bestValue, bestMove, alphaOriginal, beta, AIisDragon);
+		return bestValue;
+	}
+
+	private double alphaBetaMin(State s, int depth, double alpha, double beta, boolean AIisDragon) {
+		if (outOfTime()) {
+			return 0;
+		}
+		statistics.node();
+
+		if (depth == 0) {
+			rootMove = Move.NONE;
+		}
+
+		if (repeated(s, depth)) {
+			return drawValue();
+		}
+
+		if (gameBoard.isWinner(s)) {
+			return evaluate(s, AIisDragon);
+		}
+
+		if (depth > 0 && inTablebase(s)) {
+			return tablebaseValue(s, AIisDragon);
+		}
+
+		if (depth == depthLimit) {
+			return quiesce(s, alpha, beta, AIisDragon);
+		}
+
+		long entry = table.probe(s);
+		if (depth > 0 && tableCutoff(entry, depthLimit - depth, alpha, beta, AIisDragon)) {
+			return tableValue(entry, AIisDragon);
+		}
+
+		double betaOriginal = beta;
+		MoveGenerator generator = generatorAt(depth);
+		generator.reset(s, TranspositionTable.move(entry, s));
+		int move = generator.next();
+		if (move == Move.NONE) {
+			// no moves from here, so the game is a draw
+			return evaluate(s, AIisDragon);
+		}
+
+		int bestMove = Move.NONE;
+		double bestValue = Double.POSITIVE_INFINITY;
+
+		int searched = 0;
+		for (; move != Move.NONE; move = generator.next()) {
+			if (depth == 0 && mirroredDuplicate(s, move)) {
+				continue;
+			}
+			searched++;
+			s.makeMove(move);
+			double value = alphaBetaMax(s, depth + 1, alpha, beta, AIisDragon);
+			s.unmakeMove(move);
+			if (value < bestValue) {
+				bestValue = value;
+				bestMove = move;
+				if (depth == 0) {
+					rootMove = move;
+				}
+			}
+
+			if (bestValue <= alpha){
+				statistics.cutoff(searched == 1);
+				ordering.recordCutoff(move, depthLimit - depth);
+				break;
+			}
+
+			beta = Math.min(beta, bestValue);
+		}
+
+		storeTable(s, depthLimit - depth, bestValue, bestMove, alpha, betaOriginal, AIisDragon);
+		return bestValue;
+	}
+
+	/**
+	 * Run the quiescence search from a leaf, whose values are from the point
+	 * of view of the side to move, and give back the AI's point of view.
+	 */
+	private double quiesce(State s, double alpha, double beta, boolean AIisDragon) {
+		statistics.leaf();
+		if (AIisDragon != s.dragonsJustMoved()) {
+			return quiescence.search(s, alpha, beta);
+		}
+		return -quiescence.search(s, -beta, -alpha);
+	}
+}
@@ -0,0 +1,34 @@
+package search;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for each iteration of an iterative deepening
+ * search, so the time a search took can be broken down by depth.
+ */
+@Name("madking.Iteration")
+@Label("Search Iteration")
+@Category({ "Mad King", "Search" })
+@Description("One iteration of an iterative deepening search")
+@StackTrace(false)
+class IterationEvent extends Event {
+
+	@Label("Engine")
+	String engine;
+
+	@Label("Depth")
+	int depth;
+
+	@Label("Score")
+	@Description("The value of the root to the AI, meaningless if the iteration did not finish")
+	double score;
+
+	@Label("Finished")
+	@Description("False if the iteration ran out of time and was thrown away")
+	boolean finished;
+}
@@ -0,0 +1,127 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import board.Board;
+import board.State;
+import board.Tablebase;
+import cmpt317A2.GameNode;
+
+/**
+ * Lazy SMP: every thread runs its own iterative deepening AlphaBeta search of
+ * the same root, and the only thing they share is the transposition table.
+ * The helpers start at staggered depths, so they fill the table with results
+ * the main search then finds already done and with best moves that improve
+ * its move ordering. The main search's result is the one reported; the
+ * helpers are stopped as soon as it finishes.
+ */
+public class LazySMP extends Search {
+
+	/** the number of entries in the shared transposition table */
+	private static final int TABLE_SIZE = 1 << 20;
+
+	private final TranspositionTable table = new TranspositionTable(TABLE_SIZE);
+
+	/** raised once the main search is done to stop the helpers */
+	private final AtomicBoolean stop = new AtomicBoolean();
+
+	/** the search whose result is reported */
+	private final AlphaBeta main;
+
+	/** the searches run by the helper threads */
+	private final AlphaBeta[] helpers;
+
+	private final ExecutorService pool;
+
+	/**
+	 * @param timeBudget
+	 *            the time in milliseconds to spend on each move
+	 * @param threads
+	 *            the number of threads to search with, counting the caller's
+	 */
+	public LazySMP(Board b, long timeBudget, int threads) {
+		this.gameBoard = b;
+		this.depthLimit = 8;
+		this.main = new AlphaBeta(b, timeBudget, table, stop);
+		this.helpers = new AlphaBeta[threads - 1];
+		for (int i = 0; i < helpers.length; i++) {
+			helpers[i] = new AlphaBeta(b, timeBudget, table, stop);
+			helpers[i].statistics = statistics;
+		}
+		main.statistics = statistics;
+		this.pool = Executors.newFixedThreadPool(Math.max(1, helpers.length), runnable -> {
+			Thread thread = new Thread(runnable, "LazySMP helper");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public LazySMP(Board b, long timeBudget) {
+		this(b, timeBudget, Runtime.getRuntime().availableProcessors());
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public void setTablebase(Tablebase tablebase) {
+		super.setTablebase(tablebase);
+		main.setTablebase(tablebase);
+		for (AlphaBeta helper : helpers) {
+			helper.setTablebase(tablebase);
+		}
+	}
+
+	public void setHistory(long[] history, int length) {
+		super.setHistory(history, length);
+		main.setHistory(history, length);
+		for (AlphaBeta helper : helpers) {
+			helper.setHistory(history, length);
+		}
+	}
+
+	/**
+	 * Search the root on every thread until the time budget runs out.
+	 *
+	 * @return the move from the main search's last finished iteration
+	 */
+	public SearchResult iterativeDeepening(GameNode s, boolean AIisDragon) {
+		State state = s.getState().clone();
+		table.newSearch();
+		table.restoreLine(state);
+		stop.set(false);
+		statistics.start();
+
+		ArrayList<Future<?>> running = new ArrayList<Future<?>>();
+		for (int i = 0; i < helpers.length; i++) {
+			AlphaBeta helper = helpers[i];
+			State root = s.getState().clone();
+			// every other helper starts a move deeper than the main search
+			int firstDepth = 1 + (i + 1) % 2;
+			running.add(pool.submit(() -> helper.iterativeDeepening(root, AIisDragon, firstDepth)));
+		}
+
+		SearchResult result = main.iterativeDeepening(state.clone(), AIisDragon, 1);
+
+		// the next search starts a new generation of the table, so wait for
+		// every helper
+		stop.set(true);
+		for (Future<?> helper : running) {
+			try {
+				helper.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} catch (ExecutionException e) {
+				throw new IllegalStateException("a helper search failed", e.getCause());
+			}
+		}
+		statistics.finish(result.getDepth(), result.getNode().getValue());
+		table.rememberLine(state, gameBoard, result.getDepth());
+		return result;
+	}
+}
@@ -1,91 +1,133 @@
-package search;
-
-import java.util.Iterator;
-import java.util.LinkedList;
-
-import board.Board;
-import board.State;
-import cmpt317A2.GameNode;
-
-public class Minimax extends Search {
-
-	public Minimax(Board b) {
-		this.gameBoard = b;
-		// takes about a minute at 6
-		// mathematically 8 should take around 5 hours.
-		this.depthLimit = 4; //keep this number even
-	}
-
-	public GameNode MinimaxValue(GameNode s, boolean MaxStarts, boolean AIisDragon) {
-
-		if (MaxStarts) {
-			return MaxValue(s, AIisDragon);
-		} else {
-			return MinValue(s, AIisDragon);
-		}
-	}
-
-	// the two mutually recursive functions
-	// only difference is the way the "best" successor
-	// is determined
-	private GameNode MaxValue(GameNode s, boolean AIisDragon) {
-		if ((gameBoard.terminalState(s.getState()) ) || (s.getDepth() == depthLimit)) {
-			if (AIisDragon) {
-				s.setValue(gameBoard.utility(s.getState()));
-			} else {
-				// Might need to do something more appropriate here if AI is playing as king
-				s.setValue(-1 * gameBoard.utility(s.getState()));
-			}
-			
-			return s;
-		}
-
-		LinkedList<State> successors = gameBoard.successors(s.getState());
-		GameNode best = null;
-		double bestValue = Double.NEGATIVE_INFINITY;
-		Iterator<State> it = successors.iterator();
-
-		while (it.hasNext()) {
-			State current = it.next();
-			GameNode curr = new GameNode(current, 0, s.getDepth() + 1);
-			GameNode n = MinValue(curr, AIisDragon);
-			if (n.getValue() > bestValue) {
-				bestValue = n.getValue();
-				best = curr.clone();
-				best.setValue(bestValue);
-			}
-		}
-		return best;
-	}
-
-	private GameNode MinValue(GameNode s, boolean AIisDragon) {
-		if ((gameBoard.terminalState(s.getState()) ) || (s.getDepth() == depthLimit)) {
-			if (AIisDragon) {
-				s.setValue(gameBoard.utility(s.getState()));
-			} else {
-				// Might need to do something more appropriate here if AI is playing as king
-				s.setValue(-1 * gameBoard.utility(s.getState()));
-			}
-			
-			return s;
-		}
-		
-		LinkedList<State> successors = gameBoard.successors(s.getState());
-		GameNode best = null;
-		double bestValue = Double.POSITIVE_INFINITY;
-		Iterator<State> it = successors.iterator();
-
-		while (it.hasNext()) {
-			State current = it.next();
-			GameNode curr = new GameNode(current, 0, s.getDepth() + 1);
-			GameNode n = MaxValue(curr, AIisDragon);
-			if (n.getValue() < bestValue) {
-				bestValue = n.getValue();
-				best = curr.clone();
-				best.setValue(bestValue);
-			}
-		}
-		return best;
-	}
-
-}
+package search;
+
+import board.Board;
+import board.Move;
+import board.State;
+import cmpt317A2.GameNode;
+
+public class Minimax extends Search {
+
+	/** the best move found at the root by the last search */
+	private int rootMove;
+
+	/** one move buffer for each ply of the search */
+	private int[][] moveBuffers = new int[0][];
+
+	public Minimax(Board b) {
+		this.gameBoard = b;
+		// takes about a minute at 6
+		// mathematically 8 should take around 5 hours.
+		this.depthLimit = 4; //keep this number even
+	}
+
+	public GameNode MinimaxValue(GameNode s, boolean MaxStarts, boolean AIisDragon) {
+		State state = s.getState().clone();
+		statistics.start();
+		double value;
+		if (MaxStarts) {
+			value = MaxValue(state, 0, AIisDragon);
+		} else {
+			value = MinValue(state, 0, AIisDragon);
+		}
+		statistics.finish(depthLimit, value);
+
+		if (rootMove == Move.NONE) {
+			return new GameNode(state, value, 0);
+		}
+		return new GameNode(new State(state, rootMove), value, 1);
+	}
+
+	// the two mutually recursive functions
+	// only difference is the way the "best" successor
+	// is determined. Each move is made on the one state
+	// and taken back before trying the next
+	private double MaxValue(State s, int depth, boolean AIisDragon) {
+		statistics.node();
+		if (depth == 0) {
+			rootMove = Move.NONE;
+		}
+
+		if (repeated(s, depth)) {
+			return drawValue();
+		}
+
+		if ((gameBoard.isWinner(s) ) || (depth == depthLimit)) {
+			return evaluate(s, AIisDragon);
+		}
+
+		int[] moves = movesAt(depth);
+		int count = gameBoard.moves(s, moves);
+		if (count == 0) {
+			// no moves from here, so the game is a draw
+			return evaluate(s, AIisDragon);
+		}
+
+		double bestValue = Double.NEGATIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			s.makeMove(move);
+			double value = MinValue(s, depth + 1, AIisDragon);
+			s.unmakeMove(move);
+			if (value > bestValue) {
+				bestValue = value;
+				if (depth == 0) {
+					rootMove = move;
+				}
+			}
+		}
+		return bestValue;
+	}
+
+	private double MinValue(State s, int depth, boolean AIisDragon) {
+		statistics.node();
+		if (depth == 0) {
+			rootMove = Move.NONE;
+		}
+
+		if (repeated(s, depth)) {
+			return drawValue();
+		}
+
+		if ((gameBoard.isWinner(s) ) || (depth == depthLimit)) {
+			return evaluate(s, AIisDragon);
+		}
+
+		int[] moves = movesAt(depth);
+		int count = gameBoard.moves(s, moves);
+		if (count == 0) {
+			// no moves from here, so the game is a draw
+			return evaluate(s, AIisDragon);
+		}
+
+		double bestValue = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < count; i++) {
+			int move = moves[i];
+			s.makeMove(move);
+			double value = MaxValue(s, depth + 1, AIisDragon);
+			s.unmakeMove(move);
+			if (value < bestValue) {
+				bestValue = value;
+				if (depth == 0) {
+					rootMove = move;
+				}
+			}
+		}
+		return bestValue;
+	}
+
+	/**
+	 * @return the move buffer for a ply, creating it the first time the
+	 *         search gets that deep
+	 */
+	private int[] movesAt(int depth) {
+		if (depth >= moveBuffers.length) {
+			int[][] grown = new int[depth + 1][];
+			System.arraycopy(moveBuffers, 0, grown, 0, moveBuffers.length);
+			for (int i = moveBuffers.length; i <= depth; i++) {
+				grown[i] = new int[Board.MAX_MOVES];
+			}
+			moveBuffers = grown;
+		}
+		return moveBuffers[depth];
+	}
+}
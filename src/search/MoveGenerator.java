@@ -0,0 +1,186 @@
+package search;
+
+import java.util.Arrays;
+
+import board.Board;
+import board.Move;
+import board.State;
+
+/**
+ * Hands out the moves of a state one at a time, generating them in stages so
+ * that a cutoff early in the list saves generating the rest. The stages are
+ * the transposition table move, captures of dragons, king moves and then
+ * every other move. Within a stage the highest scoring move by MoveOrdering
+ * is picked first.
+ *
+ * A search keeps one generator per ply and resets it for each node, so the
+ * move buffer is reused rather than allocated at every node.
+ */
+public class MoveGenerator {
+
+	private static final int HASH_MOVE = 0;
+	private static final int CAPTURES = 1;
+	private static final int KING_MOVES = 2;
+	private static final int QUIET_MOVES = 3;
+	private static final int DONE = 4;
+
+	private final Board gameBoard;
+	private final MoveOrdering ordering;
+
+	private State state;
+	private int hashMove;
+	private int stage;
+
+	/** the moves of the current stage and their ordering scores */
+	private int[] moves = new int[32];
+	private int[] scores = new int[32];
+	private int count;
+	private int index;
+
+	public MoveGenerator(Board gameBoard, MoveOrdering ordering) {
+		this.gameBoard = gameBoard;
+		this.ordering = ordering;
+	}
+
+	/**
+	 * Start handing out the moves of a new state.
+	 *
+	 * @param hashMove
+	 *            the move the transposition table suggests, or Move.NONE
+	 */
+	public void reset(State s, int hashMove) {
+		this.state = s;
+		this.hashMove = hashMove;
+		this.stage = HASH_MOVE;
+		this.count = 0;
+		this.index = 0;
+
+		if (hashMoveIsLegal()) {
+			moves[0] = hashMove;
+			count = 1;
+		} else {
+			this.hashMove = Move.NONE;
+		}
+	}
+
+	/**
+	 * @return the next best move, or Move.NONE once every move has been
+	 *         handed out
+	 */
+	public int next() {
+		while (true) {
+			while (index < count) {
+				int move = pickBest();
+				if (stage == HASH_MOVE || move != hashMove) {
+					return move;
+				}
+			}
+
+			if (stage == DONE) {
+				return Move.NONE;
+			}
+			stage++;
+			generateStage();
+		}
+	}
+
+	/**
+	 * Swap the highest scoring remaining move to the front of the stage and
+	 * hand it out. Ties go to the move generated first.
+	 */
+	private int pickBest() {
+		int best = index;
+		for (int i = index + 1; i < count; i++) {
+			if (scores[i] > scores[best]) {
+				best = i;
+			}
+		}
+		int move = moves[best];
+		int score = scores[best];
+		for (int i = best; i > index; i--) {
+			moves[i] = moves[i - 1];
+			scores[i] = scores[i - 1];
+		}
+		moves[index] = move;
+		scores[index] = score;
+		index++;
+		return move;
+	}
+
+	/** fill the buffer with the moves of the current stage */
+	private void generateStage() {
+		count = 0;
+		index = 0;
+		boolean kingToMove = state.dragonsJustMoved();
+
+		switch (stage) {
+		case (CAPTURES):
+			if (kingToMove) {
+				int pieces = state.getKings() | state.getGuards();
+				while (pieces != 0) {
+					int from = Integer.numberOfTrailingZeros(pieces);
+					pieces &= pieces - 1;
+					int piece = (state.getKings() & (1 << from)) != 0 ? Move.KING : Move.GUARD;
+					addMoves(from, gameBoard.captureTargets(state, from), piece);
+				}
+			}
+			break;
+		case (KING_MOVES):
+			if (kingToMove) {
+				int from = state.getKingSquare();
+				addMoves(from, gameBoard.stepTargets(state, from), Move.KING);
+			}
+			break;
+		case (QUIET_MOVES):
+			int pieces = kingToMove ? state.getGuards() : state.getDragons();
+			int piece = kingToMove ? Move.GUARD : Move.DRAGON;
+			while (pieces != 0) {
+				int from = Integer.numberOfTrailingZeros(pieces);
+				pieces &= pieces - 1;
+				addMoves(from, gameBoard.stepTargets(state, from), piece);
+			}
+			break;
+		default:
+			break;
+		}
+	}
+
+	/**
+	 * add a move of a piece from one square to each square in targets, which
+	 * are either all captures or all empty
+	 */
+	private void addMoves(int from, int targets, int piece) {
+		boolean captures = (targets & state.getDragons()) != 0;
+		while (targets != 0) {
+			int to = Integer.numberOfTrailingZeros(targets);
+			targets &= targets - 1;
+			if (count == moves.length) {
+				moves = Arrays.copyOf(moves, count * 2);
+				scores = Arrays.copyOf(scores, count * 2);
+			}
+			int move = captures ? Move.capture(from, to, piece) : Move.of(from, to, piece);
+			moves[count] = move;
+			scores[count] = ordering.score(state, move, Move.NONE);
+			count++;
+		}
+	}
+
+	/**
+	 * The transposition table move is only handed out if it is legal here,
+	 * since a hash collision could have left a move from some other position.
+	 * Its piece and capture flag have to match the board too, as makeMove
+	 * trusts them.
+	 */
+	private boolean hashMoveIsLegal() {
+		if (hashMove == Move.NONE) {
+			return false;
+		}
+		int from = Move.from(hashMove);
+		int to = Move.to(hashMove);
+		int team = state.dragonsJustMoved() ? (state.getKings() | state.getGuards()) : state.getDragons();
+		if ((team & (1 << from)) == 0 || state.moveOf(from, to) != hashMove) {
+			return false;
+		}
+		return (gameBoard.moveTargets(state, from) & (1 << to)) != 0;
+	}
+}
@@ -0,0 +1,83 @@
+package search;
+
+import java.util.Arrays;
+
+import board.Bitboard;
+import board.Move;
+import board.State;
+
+/**
+ * Scores moves so the ones most likely to cause a cutoff are searched first.
+ * In order: the best move remembered in the transposition table,
+ * dragon captures by the king or a guard, king moves toward the dragons' home
+ * row, dragon moves that put another dragon next to the king, and finally
+ * every other move ranked by how often it has caused a cutoff before.
+ */
+public class MoveOrdering {
+
+	private static final int HASH_MOVE_SCORE = 1000000;
+	private static final int CAPTURE_SCORE = 100000;
+	private static final int KING_ADVANCE_SCORE = 50000;
+	private static final int KING_THREAT_SCORE = 40000;
+
+	/** history scores are capped below the tactical move scores */
+	private static final int HISTORY_LIMIT = 30000;
+
+	/** how often each move has caused a cutoff, indexed by packed move */
+	private int[] history = new int[1 << Move.BITS];
+
+	/**
+	 * @return how promising a move from parent looks, higher is better
+	 */
+	public int score(State parent, int move, int hashMove) {
+		if (move == hashMove) {
+			return HASH_MOVE_SCORE;
+		}
+
+		int from = Move.from(move);
+		int to = Move.to(move);
+		if (Move.isCapture(move)) {
+			return CAPTURE_SCORE;
+		}
+
+		int piece = Move.piece(move);
+		if (piece == Move.KING) {
+			int rowsAdvanced = Bitboard.row(to) - Bitboard.row(from);
+			if (rowsAdvanced > 0) {
+				return KING_ADVANCE_SCORE + rowsAdvanced;
+			}
+		} else if (piece == Move.DRAGON) {
+			int aroundKing = Bitboard.orthogonal(parent.getKings());
+			if ((aroundKing & (1 << to)) != 0 && (aroundKing & (1 << from)) == 0) {
+				return KING_THREAT_SCORE;
+			}
+		}
+
+		return history[move];
+	}
+
+	/**
+	 * Remember that a quiet move caused a cutoff, weighted by the depth of the
+	 * subtree it cut off.
+	 */
+	public void recordCutoff(int move, int depth) {
+		if (Move.isCapture(move)) {
+			return;
+		}
+		history[move] = Math.min(HISTORY_LIMIT, history[move] + depth * depth);
+	}
+
+	public void clearHistory() {
+		Arrays.fill(history, 0);
+	}
+
+	/**
+	 * Halve every history score, so what earlier searches learned still
+	 * orders the moves of the next one but gives way to what it learns.
+	 */
+	public void ageHistory() {
+		for (int i = 0; i < history.length; i++) {
+			history[i] >>= 1;
+		}
+	}
+}
@@ -0,0 +1,380 @@
+package search;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.RecursiveAction;
+
+import board.Board;
+import board.Move;
+import board.State;
+import cmpt317A2.GameNode;
+
+/**
+ * Alpha-beta spread over a ForkJoinPool the "Young Brothers Wait" way: at
+ * each node the first child is searched on its own to establish a bound, and
+ * only then are the remaining siblings handed to the pool as tasks. Siblings
+ * share their parent's alpha as it rises, and once one of them causes a
+ * cutoff the others are abandoned.
+ *
+ * The search is written in negamax form, each node's value being from the
+ * point of view of the side choosing at that node, but it returns the same
+ * value as AlphaBeta.alphaBeta at the same depth. When several root moves
+ * share the best value the one generated first is chosen, whatever order the
+ * threads finish in.
+ */
+public class ParallelAlphaBeta extends Search {
+
+	/** siblings are only searched in parallel this many moves from the leaves */
+	private static final int MIN_SPLIT_DRAFT = 2;
+
+	private final ForkJoinPool pool;
+
+	/** static move scores only: history is never recorded, so it is safe to share */
+	private final MoveOrdering ordering = new MoveOrdering();
+
+	/**
+	 * @param parallelism
+	 *            the number of threads to search with
+	 */
+	public ParallelAlphaBeta(Board b, int parallelism) {
+		this.gameBoard = b;
+		this.depthLimit = 8;
+		this.pool = new ForkJoinPool(parallelism);
+	}
+
+	public ParallelAlphaBeta(Board b) {
+		this(b, Runtime.getRuntime().availableProcessors());
+	}
+
+	public void shutdown() {
+		pool.shutdown();
+	}
+
+	public GameNode alphaBeta(GameNode s, boolean MaxStarts, boolean AIisDragon) {
+		RootTask root = new RootTask(s.getState().clone(), MaxStarts ? 1 : -1, AIisDragon,
+				Arrays.copyOf(positions, rootPly + depthLimit + 1));
+		statistics.start();
+		pool.invoke(root);
+
+		// negamax values are from the point of view of the side choosing, so
+		// flip back to the AI's point of view when the root was a min node
+		double value = MaxStarts ? root.bestValue : -root.bestValue;
+		statistics.finish(depthLimit, value);
+		if (root.bestMove == Move.NONE) {
+			return new GameNode(root.state, value, 0);
+		}
+		return new GameNode(new State(root.state, root.bestMove), value, 1);
+	}
+
+	/**
+	 * The bounds shared by the siblings being searched in parallel below a
+	 * node, and whether a cutoff has made the rest of them pointless.
+	 */
+	private static class SplitPoint {
+		private final SplitPoint parent;
+		private final double beta;
+		private double alpha;
+		private double bestValue;
+		private volatile boolean cutoff;
+
+		SplitPoint(SplitPoint parent, double alpha, double beta, double bestValue) {
+			this.parent = parent;
+			this.alpha = alpha;
+			this.beta = beta;
+			this.bestValue = bestValue;
+		}
+
+		synchronized double alpha() {
+			return alpha;
+		}
+
+		synchronized double bestValue() {
+			return bestValue;
+		}
+
+		/**
+		 * fold in the value of one sibling
+		 * 
+		 * @return true if it is the sibling that cut the rest off
+		 */
+		synchronized boolean report(double value) {
+			if (value > bestValue) {
+				bestValue = value;
+			}
+			if (value > alpha) {
+				alpha = value;
+			}
+			if (value >= beta && !cutoff) {
+				cutoff = true;
+				return true;
+			}
+			return false;
+		}
+
+		/** @return true if this or any enclosing split point has been cut off */
+		boolean cancelled() {
+			for (SplitPoint split = this; split != null; split = split.parent) {
+				if (split.cutoff) {
+					return true;
+				}
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Searches a subtree on its own copy of the state with its own move
+	 * generators and its own copy of the positions leading to it, so tasks
+	 * never share anything mutable but split points.
+	 */
+	private abstract class SearchTask extends RecursiveAction {
+		private static final long serialVersionUID = 1L;
+
+		protected final boolean AIisDragon;
+
+		/** the game's history and the path to the subtree, as in positions */
+		protected final long[] path;
+
+		private MoveGenerator[] generators = new MoveGenerator[0];
+		private Quiescence quiescence;
+
+		SearchTask(boolean AIisDragon, long[] path) {
+			this.AIisDragon = AIisDragon;
+			this.path = path;
+		}
+
+		/**
+		 * @param sign
+		 *            1 if the node is a max node, -1 for a min node
+		 * @param split
+		 *            the innermost split point above the node, null if none
+		 * @return the node's value from the point of view of the side choosing
+		 *         there, meaningless if split has been cancelled
+		 */
+		protected double negamax(State s, int depth, double alpha, double beta, int sign, SplitPoint split) {
+			if (split != null && split.cancelled()) {
+				return 0;
+			}
+			statistics.node();
+
+			path[rootPly + depth] = s.getHash();
+			if (repeats(path, rootPly + depth)) {
+				return drawValue();
+			}
+
+			if (gameBoard.isWinner(s)) {
+				return sign * evaluate(s, AIisDragon);
+			}
+
+			if (inTablebase(s)) {
+				return sign * tablebaseValue(s, AIisDragon);
+			}
+
+			if (depth == depthLimit) {
+				return quiesce(s, alpha, beta, sign);
+			}
+
+			MoveGenerator generator = generatorAt(depth);
+			generator.reset(s, Move.NONE);
+			int move = generator.next();
+			if (move == Move.NONE) {
+				// no moves from here, so the game is a draw
+				return sign * evaluate(s, AIisDragon);
+			}
+
+			// the eldest brother is searched first, on its own
+			s.makeMove(move);
+			double bestValue = -negamax(s, depth + 1, -beta, -alpha, -sign, split);
+			s.unmakeMove(move);
+			if (bestValue >= beta) {
+				statistics.cutoff(true);
+				return bestValue;
+			}
+			if (split != null && split.cancelled()) {
+				return bestValue;
+			}
+			alpha = Math.max(alpha, bestValue);
+
+			if (depthLimit - depth < MIN_SPLIT_DRAFT) {
+				for (move = generator.next(); move != Move.NONE; move = generator.next()) {
+					s.makeMove(move);
+					double value = -negamax(s, depth + 1, -beta, -alpha, -sign, split);
+					s.unmakeMove(move);
+					if (split != null && split.cancelled()) {
+						return 0;
+					}
+					if (value > bestValue) {
+						bestValue = value;
+					}
+					if (bestValue >= beta) {
+						statistics.cutoff(false);
+						break;
+					}
+					alpha = Math.max(alpha, bestValue);
+				}
+				return bestValue;
+			}
+
+			// then the young brothers are searched in parallel
+			SplitPoint children = new SplitPoint(split, alpha, beta, bestValue);
+			ArrayList<ChildTask> tasks = new ArrayList<ChildTask>();
+			for (move = generator.next(); move != Move.NONE; move = generator.next()) {
+				tasks.add(new ChildTask(new State(s, move), depth + 1, -sign, children, AIisDragon, path.clone()));
+			}
+			ForkJoinTask.invokeAll(tasks);
+			return children.bestValue();
+		}
+
+		/**
+		 * Run the quiescence search from a leaf, whose values are from the
+		 * point of view of the side to move, and give back the point of view
+		 * of the side choosing at the node.
+		 */
+		private double quiesce(State s, double alpha, double beta, int sign) {
+			statistics.leaf();
+			if (quiescence == null) {
+				quiescence = new Quiescence(gameBoard);
+			}
+			boolean AIchooses = sign == 1;
+			boolean AIToMove = AIisDragon != s.dragonsJustMoved();
+			if (AIchooses == AIToMove) {
+				return quiescence.search(s, alpha, beta);
+			}
+			return -quiescence.search(s, -beta, -alpha);
+		}
+
+		private MoveGenerator generatorAt(int depth) {
+			if (depth >= generators.length) {
+				MoveGenerator[] grown = new MoveGenerator[depth + 1];
+				System.arraycopy(generators, 0, grown, 0, generators.length);
+				for (int i = generators.length; i <= depth; i++) {
+					grown[i] = new MoveGenerator(gameBoard, ordering);
+				}
+				generators = grown;
+			}
+			return generators[depth];
+		}
+	}
+
+	/** searches one young brother and reports its value to the split point */
+	private class ChildTask extends SearchTask {
+		private static final long serialVersionUID = 1L;
+
+		private final State state;
+		private final int depth;
+		private final int sign;
+		private final SplitPoint split;
+
+		ChildTask(State state, int depth, int sign, SplitPoint split, boolean AIisDragon, long[] path) {
+			super(AIisDragon, path);
+			this.state = state;
+			this.depth = depth;
+			this.sign = sign;
+			this.split = split;
+		}
+
+		protected void compute() {
+			if (split.cancelled()) {
+				return;
+			}
+			// pick up the best bound the siblings have found so far
+			double value = -negamax(state, depth, -split.beta, -split.alpha(), sign, split);
+			if (!split.cancelled() && split.report(value)) {
+				statistics.cutoff(false);
+			}
+		}
+	}
+
+	/**
+	 * Searches the root. The young brothers are searched with a window one
+	 * below the best value so far, so any move that ties it gets an exact
+	 * value and the earliest of the tied moves can be picked.
+	 */
+	private class RootTask extends SearchTask {
+		private static final long serialVersionUID = 1L;
+
+		private final State state;
+		private final int sign;
+		private int bestMove = Move.NONE;
+		private double bestValue;
+
+		RootTask(State state, int sign, boolean AIisDragon, long[] path) {
+			super(AIisDragon, path);
+			this.state = state;
+			this.sign = sign;
+		}
+
+		protected void compute() {
+			statistics.node();
+			path[rootPly] = state.getHash();
+			if ((gameBoard.isWinner(state)) || (depthLimit == 0)) {
+				bestValue = sign * evaluate(state, AIisDragon);
+				return;
+			}
+
+			MoveGenerator generator = new MoveGenerator(gameBoard, ordering);
+			generator.reset(state, Move.NONE);
+			int first = nextRootMove(generator);
+			if (first == Move.NONE) {
+				bestValue = sign * evaluate(state, AIisDragon);
+				return;
+			}
+
+			state.makeMove(first);
+			bestValue = -negamax(state, 1, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY, -sign, null);
+			state.unmakeMove(first);
+			bestMove = first;
+
+			SplitPoint children = new SplitPoint(null, bestValue, Double.POSITIVE_INFINITY, bestValue);
+			ArrayList<RootChildTask> tasks = new ArrayList<RootChildTask>();
+			for (int move = nextRootMove(generator); move != Move.NONE; move = nextRootMove(generator)) {
+				tasks.add(new RootChildTask(new State(state, move), move, -sign, children, AIisDragon, path.clone()));
+			}
+			ForkJoinTask.invokeAll(tasks);
+
+			// tasks are in generation order, so the first of any tie wins
+			for (RootChildTask task : tasks) {
+				if (task.value > bestValue) {
+					bestValue = task.value;
+					bestMove = task.move;
+				}
+			}
+		}
+
+		/** @return the next root move, skipping mirror images of other moves */
+		private int nextRootMove(MoveGenerator generator) {
+			int move = generator.next();
+			while (move != Move.NONE && mirroredDuplicate(state, move)) {
+				move = generator.next();
+			}
+			return move;
+		}
+	}
+
+	private class RootChildTask extends SearchTask {
+		private static final long serialVersionUID = 1L;
+
+		private final State state;
+		private final int move;
+		private final int sign;
+		private final SplitPoint split;
+		private double value = Double.NEGATIVE_INFINITY;
+
+		RootChildTask(State state, int move, int sign, SplitPoint split, boolean AIisDragon, long[] path) {
+			super(AIisDragon, path);
+			this.state = state;
+			this.move = move;
+			this.sign = sign;
+			this.split = split;
+		}
+
+		protected void compute() {
+			// one below the best so far, so a tie comes back exact
+			double alpha = split.alpha() - 1;
+			value = -negamax(state, 1, Double.NEGATIVE_INFINITY, -alpha, sign, split);
+			split.report(value);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+package search;
+
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import board.Board;
+import board.State;
+import board.Tablebase;
+
+/**
+ * Searches on the human player's time. While the human is thinking, a
+ * background thread searches the AI's answer to each move the human could
+ * make, the one the AI expects first, and keeps the result for each. When
+ * the human has moved, the AI's answer to that move is usually already
+ * there.
+ *
+ * Each reply is first searched for the same time the AI would spend on it
+ * anyway, so every answer kept is at least as deep as the AI would have
+ * searched. Once every reply has been searched, they are searched again
+ * with twice the time, and so on, for as long as the human takes.
+ */
+public class Ponderer {
+
+	/** the number of entries in the pondering search's table */
+	private static final int TABLE_SIZE = 1 << 20;
+
+	/** the share of the time budget spent guessing the human's move */
+	private static final int GUESS_FRACTION = 10;
+
+	/** the longest a single reply is searched for, as a multiple of the budget */
+	private static final int MAX_BUDGET_MULTIPLE = 64;
+
+	private final Board gameBoard;
+	private final long timeBudget;
+
+	/** raised when the human has moved, to end the pondering */
+	private final AtomicBoolean stop = new AtomicBoolean();
+
+	private final TranspositionTable table = new TranspositionTable(TABLE_SIZE);
+
+	private final AlphaBeta search;
+
+	/** the AI's answer to each reply searched, by hash of the position */
+	private final ConcurrentHashMap<Long, SearchResult> results = new ConcurrentHashMap<Long, SearchResult>();
+
+	private final ExecutorService thread = Executors.newSingleThreadExecutor(runnable -> {
+		Thread ponder = new Thread(runnable, "Ponderer");
+		ponder.setDaemon(true);
+		return ponder;
+	});
+
+	/** the pondering running, null if there is none */
+	private Future<?> running;
+
+	/**
+	 * @param timeBudget
+	 *            the time in milliseconds the AI spends on each move
+	 */
+	public Ponderer(Board b, long timeBudget) {
+		this.gameBoard = b;
+		this.timeBudget = timeBudget;
+		this.search = new AlphaBeta(b, timeBudget, table, stop);
+	}
+
+	public void setTablebase(Tablebase tablebase) {
+		search.setTablebase(tablebase);
+	}
+
+	/**
+	 * Start pondering the position the human is to move in.
+	 *
+	 * @param history
+	 *            the game's history, as for Search.setHistory, ending with s
+	 */
+	public void start(State s, boolean AIisDragon, long[] history, int length) {
+		cancel();
+		results.clear();
+		table.newSearch();
+		stop.set(false);
+		State root = s.clone();
+		long[] positions = Arrays.copyOf(history, length + 1);
+		running = thread.submit(() -> ponder(root, AIisDragon, positions, length));
+	}
+
+	/**
+	 * Stop pondering, waiting for the search to notice.
+	 *
+	 * @return the AI's answer to s found while pondering, or null if s was
+	 *         not searched in time
+	 */
+	public SearchResult stop(State s) {
+		cancel();
+		return results.get(s.getHash());
+	}
+
+	private void cancel() {
+		if (running == null) {
+			return;
+		}
+		stop.set(true);
+		try {
+			running.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			throw new IllegalStateException("pondering failed", e.getCause());
+		}
+		running = null;
+	}
+
+	/**
+	 * @param positions
+	 *            the game's history with room for one more position
+	 * @param length
+	 *            the length of the history, which ends with s
+	 */
+	private void ponder(State s, boolean AIisDragon, long[] positions, int length) {
+		int[] replies = orderReplies(s, AIisDragon, positions, length);
+
+		for (long budget = timeBudget; budget <= MAX_BUDGET_MULTIPLE * timeBudget; budget *= 2) {
+			for (int reply : replies) {
+				if (stop.get()) {
+					return;
+				}
+				State next = new State(s, reply);
+				if (gameBoard.isWinner(next) || !gameBoard.hasLegalMove(next)) {
+					continue;
+				}
+
+				positions[length] = next.getHash();
+				search.setHistory(positions, length + 1);
+				search.setTimeBudget(budget);
+				SearchResult result = search.iterativeDeepening(next, AIisDragon, 1);
+				// a search cut short by the human moving is shallower than it
+				// should be, so it is only kept if it had its whole budget
+				if (result != null && !stop.get()) {
+					results.put(next.getHash(), result);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @return the human's moves in s, the one the AI expects the human to
+	 *         make first
+	 */
+	private int[] orderReplies(State s, boolean AIisDragon, long[] positions, int length) {
+		int[] replies = gameBoard.moves(s);
+		search.setHistory(positions, length);
+		search.setTimeBudget(Math.max(1, timeBudget / GUESS_FRACTION));
+		SearchResult guess = search.iterativeDeepening(s.clone(), !AIisDragon, 1);
+		if (guess == null) {
+			return replies;
+		}
+		int expected = guess.getNode().getState().getLastMove();
+		for (int i = 0; i < replies.length; i++) {
+			if (replies[i] == expected) {
+				replies[i] = replies[0];
+				replies[0] = expected;
+				break;
+			}
+		}
+		return replies;
+	}
+}
@@ -0,0 +1,151 @@
+package search;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import board.Board;
+import board.Move;
+import board.State;
+import cmpt317A2.GameNode;
+
+/**
+ * Principal Variation Search in negamax form. Every node's value is from the
+ * point of view of the side to move there, so one method serves both teams.
+ * The first move at a node is searched with the full window; every later
+ * move is only tested against a null window to show it is no better, and is
+ * searched again with the full window if it turns out to be.
+ *
+ * The search is run from the AI's turn, so the value at the root is also the
+ * value from the AI's point of view.
+ */
+public class PrincipalVariation extends TableSearch {
+
+	public PrincipalVariation(Board b) {
+		this(b, 0);
+	}
+
+	/**
+	 * @param timeBudget
+	 *            the time in milliseconds iterativeDeepening may spend on each
+	 *            move
+	 */
+	public PrincipalVariation(Board b, long timeBudget) {
+		super(b, timeBudget, new TranspositionTable(TABLE_SIZE), new AtomicBoolean());
+	}
+
+	/**
+	 * Search by iterative deepening until the time budget runs out.
+	 *
+	 * @see TableSearch#timedSearch
+	 */
+	public SearchResult iterativeDeepening(GameNode s) {
+		State state = s.getState().clone();
+		return timedSearch(state, !state.dragonsJustMoved());
+	}
+
+	/**
+	 * Search to the fixed depth limit from the side to move in s.
+	 */
+	public GameNode search(GameNode s) {
+		startFixedDepth();
+		State state = s.getState().clone();
+		double value = pvs(state, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+		statistics.finish(depthLimit, value);
+		return rootResult(state, value);
+	}
+
+	/**
+	 * The AI is always the side to move at the root, so the root's value from
+	 * the side to move's point of view is already the AI's.
+	 */
+	protected double searchRoot(State root, boolean AIisDragon) {
+		return pvs(root, 0, Double.NEGATIVE_INFINITY, Double.POSITIVE_INFINITY);
+	}
+
+	/**
+	 * @return the value of s from the point of view of the side to move
+	 */
+	private double pvs(State s, int depth, double alpha, double beta) {
+		if (outOfTime()) {
+			return 0;
+		}
+		statistics.node();
+
+		if (depth == 0) {
+			rootMove = Move.NONE;
+		}
+
+		if (repeated(s, depth)) {
+			return drawValue();
+		}
+
+		boolean dragonsToMove = !s.dragonsJustMoved();
+		if (gameBoard.isWinner(s)) {
+			return evaluate(s, dragonsToMove);
+		}
+
+		if (depth > 0 && inTablebase(s)) {
+			return tablebaseValue(s, dragonsToMove);
+		}
+
+		if (depth == depthLimit) {
+			statistics.leaf();
+			return quiescence.search(s, alpha, beta);
+		}
+
+		long entry = table.probe(s);
+		if (depth > 0 && tableCutoff(entry, depthLimit - depth, alpha, beta, dragonsToMove)) {
+			return tableValue(entry, dragonsToMove);
+		}
+
+		double alphaOriginal = alpha;
+		MoveGenerator generator = generatorAt(depth);
+		generator.reset(s, TranspositionTable.move(entry, s));
+		int move = generator.next();
+		if (move == Move.NONE) {
+			// no moves from here, so the game is a draw
+			return evaluate(s, dragonsToMove);
+		}
+
+		int bestMove = Move.NONE;
+		double bestValue = Double.NEGATIVE_INFINITY;
+
+		int searched = 0;
+		for (; move != Move.NONE; move = generator.next()) {
+			if (depth == 0 && mirroredDuplicate(s, move)) {
+				continue;
+			}
+			searched++;
+			s.makeMove(move);
+			double value;
+			if (bestMove == Move.NONE) {
+				value = -pvs(s, depth + 1, -beta, -alpha);
+			} else {
+				// scores are whole numbers, so a window one wide is a null window
+				value = -pvs(s, depth + 1, -alpha - 1, -alpha);
+				if (value > alpha && value < beta) {
+					value = -pvs(s, depth + 1, -beta, -alpha);
+				}
+			}
+			s.unmakeMove(move);
+
+			if (value > bestValue) {
+				bestValue = value;
+				bestMove = move;
+				if (depth == 0) {
+					rootMove = move;
+				}
+			}
+
+			if (bestValue >= beta) {
+				statistics.cutoff(searched == 1);
+				ordering.recordCutoff(move, depthLimit - depth);
+				break;
+			}
+
+			alpha = Math.max(alpha, bestValue);
+		}
+
+		storeTable(s, depthLimit - depth, bestValue, bestMove, alphaOriginal, beta, dragonsToMove);
+		return bestValue;
+	}
+}
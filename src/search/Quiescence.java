@@ -0,0 +1,154 @@
+package search;
+
+import java.util.Arrays;
+
+import board.Bitboard;
+import board.Board;
+import board.Move;
+import board.State;
+
+/**
+ * Carries a search on past its depth limit through the moves that would
+ * change the evaluation the most, until the position is quiet. The king's
+ * side only tries capturing dragons and stepping onto the dragons' home row;
+ * the dragons only try closing in on the king and moving next to a guard that
+ * already has two dragons around it, which converts it. At each position the
+ * side to move may also "stand pat" and take the static evaluation instead of
+ * making any of those moves.
+ *
+ * Values are from the point of view of the side to move.
+ */
+public class Quiescence {
+
+	/** how many moves past the depth limit a capture sequence is followed */
+	private static final int MAX_PLY = 8;
+
+	private final Board gameBoard;
+
+	/** the tactical moves of each ply, generated into reused buffers */
+	private int[][] moves = new int[MAX_PLY][32];
+
+	public Quiescence(Board gameBoard) {
+		this.gameBoard = gameBoard;
+	}
+
+	/**
+	 * @return the value of s once the captures and threats available from it
+	 *         have been played out, from the point of view of the side to move
+	 */
+	public double search(State s, double alpha, double beta) {
+		return search(s, 0, alpha, beta);
+	}
+
+	private double search(State s, int ply, double alpha, double beta) {
+		// a won game has to be recognised before the stand pat value is
+		// taken, since isWinner is what marks the state for utility to score
+		// it as a win rather than by the heuristic
+		if (gameBoard.isWinner(s)) {
+			double value = gameBoard.utility(s);
+			return s.dragonsJustMoved() ? -value : value;
+		}
+
+		double standPat = gameBoard.utility(s);
+		if (s.dragonsJustMoved()) {
+			standPat = -standPat;
+		}
+
+		if ((ply == MAX_PLY) || (standPat >= beta)) {
+			return standPat;
+		}
+		alpha = Math.max(alpha, standPat);
+
+		int count = generate(s, ply);
+		int[] plyMoves = moves[ply];
+		double bestValue = standPat;
+		for (int i = 0; i < count; i++) {
+			int move = plyMoves[i];
+			s.makeMove(move);
+			double value = -search(s, ply + 1, -beta, -alpha);
+			s.unmakeMove(move);
+
+			if (value > bestValue) {
+				bestValue = value;
+			}
+			if (bestValue >= beta) {
+				break;
+			}
+			alpha = Math.max(alpha, bestValue);
+		}
+		return bestValue;
+	}
+
+	/**
+	 * Fill the ply's buffer with the tactical moves of the side to move.
+	 *
+	 * @return the number of moves generated
+	 */
+	private int generate(State s, int ply) {
+		int count = 0;
+		if (s.dragonsJustMoved()) {
+			int kingSquare = s.getKingSquare();
+			count = addMoves(s, ply, count, kingSquare, gameBoard.stepTargets(s, kingSquare) & Bitboard.ROW_FOUR,
+					Move.KING);
+			int pieces = s.getKings() | s.getGuards();
+			while (pieces != 0) {
+				int from = Integer.numberOfTrailingZeros(pieces);
+				pieces &= pieces - 1;
+				int piece = (s.getKings() & (1 << from)) != 0 ? Move.KING : Move.GUARD;
+				count = addMoves(s, ply, count, from, gameBoard.captureTargets(s, from), piece);
+			}
+			return count;
+		}
+
+		int aroundKing = Bitboard.orthogonal(s.getKings());
+
+		// guards one more dragon away from being converted
+		int threatened = 0;
+		int guards = s.getGuards();
+		while (guards != 0) {
+			int square = Integer.numberOfTrailingZeros(guards);
+			guards &= guards - 1;
+			if (Bitboard.countAround(square, s.getDragons()) >= 2) {
+				threatened |= 1 << square;
+			}
+		}
+
+		int dragons = s.getDragons();
+		while (dragons != 0) {
+			int from = Integer.numberOfTrailingZeros(dragons);
+			int fromBit = 1 << from;
+			dragons &= dragons - 1;
+
+			// only squares this dragon isn't already next to add a neighbour
+			int wanted = 0;
+			if ((aroundKing & fromBit) == 0) {
+				wanted |= aroundKing;
+			}
+			for (int remaining = threatened; remaining != 0; remaining &= remaining - 1) {
+				int aroundGuard = Bitboard.neighbours(Integer.numberOfTrailingZeros(remaining));
+				if ((aroundGuard & fromBit) == 0) {
+					wanted |= aroundGuard;
+				}
+			}
+			count = addMoves(s, ply, count, from, gameBoard.stepTargets(s, from) & wanted, Move.DRAGON);
+		}
+		return count;
+	}
+
+	/**
+	 * add a move of a piece from one square to each square in targets, which
+	 * are either all captures or all empty
+	 */
+	private int addMoves(State s, int ply, int count, int from, int targets, int piece) {
+		boolean captures = (targets & s.getDragons()) != 0;
+		while (targets != 0) {
+			int to = Integer.numberOfTrailingZeros(targets);
+			targets &= targets - 1;
+			if (count == moves[ply].length) {
+				moves[ply] = Arrays.copyOf(moves[ply], count * 2);
+			}
+			moves[ply][count++] = captures ? Move.capture(from, to, piece) : Move.of(from, to, piece);
+		}
+		return count;
+	}
+}
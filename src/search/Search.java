@@ -1,6 +1,9 @@
 package search;
 
 import board.Board;
+import board.Move;
+import board.State;
+import board.Tablebase;
 
 public abstract class Search {
 	// Variables
@@ -14,4 +17,150 @@ public abstract class Search {
 	 */
 	protected int depthLimit;
 
+	/**
+	 * exact results of positions with few pieces left, null if none
+	 */
+	protected Tablebase tablebase;
+
+	/** room left after the game's history for the path down the tree */
+	protected static final int MAX_PATH = 128;
+
+	/**
+	 * the hash of every position of the game so far, ending with the root,
+	 * followed by the positions on the path from the root to the node being
+	 * searched
+	 */
+	protected long[] positions = new long[MAX_PATH];
+
+	/** the index of the root in positions */
+	protected int rootPly;
+
+	/**
+	 * counts of the work done by the last search, shared by every thread
+	 * searching with it
+	 */
+	protected SearchStatistics statistics = new SearchStatistics(getClass().getSimpleName());
+
+	/** @return the counts of the work done by the searches so far */
+	public SearchStatistics getStatistics() {
+		return statistics;
+	}
+
+	/**
+	 * Change how many moves ahead the fixed-depth searches look, as the
+	 * benchmarks do to time each search at several depths.
+	 */
+	public void setDepthLimit(int depthLimit) {
+		this.depthLimit = depthLimit;
+	}
+
+	/**
+	 * Tell the search which positions the game has already been through, so
+	 * it can see a move back into one of them is a draw.
+	 * 
+	 * @param history
+	 *            the hashes of the positions so far, oldest first, ending with
+	 *            the position about to be searched
+	 * @param length
+	 *            how many of the hashes in history are in use
+	 */
+	public void setHistory(long[] history, int length) {
+		if (positions.length < length + MAX_PATH) {
+			positions = new long[length + MAX_PATH];
+		}
+		System.arraycopy(history, 0, positions, 0, length);
+		rootPly = Math.max(0, length - 1);
+	}
+
+	/**
+	 * Record s as the position depth moves below the root and check it
+	 * against the game's history and the path to it. Going back to a
+	 * position gains nothing, since whoever is to move could simply do the
+	 * same again, so a repetition is scored as a draw at once instead of
+	 * being searched.
+	 * 
+	 * @return true if s repeats an earlier position, never for the root
+	 */
+	protected boolean repeated(State s, int depth) {
+		int ply = rootPly + depth;
+		positions[ply] = s.getHash();
+		return depth > 0 && repeats(positions, ply);
+	}
+
+	/**
+	 * @return true if the position at ply matches one before it with the
+	 *         same side to move, ply - 2, ply - 4 and so on
+	 */
+	protected static boolean repeats(long[] positions, int ply) {
+		long hash = positions[ply];
+		for (int i = ply - 2; i >= 0; i -= 2) {
+			if (positions[i] == hash) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Answer positions with few enough pieces from a tablebase rather than by
+	 * searching them.
+	 */
+	public void setTablebase(Tablebase tablebase) {
+		this.tablebase = tablebase;
+	}
+
+	/**
+	 * Stop any threads the search keeps for itself once it is no longer
+	 * needed. The search can't be used again afterwards.
+	 */
+	public void shutdown() {
+	}
+
+	/** @return true if the tablebase knows the exact value of s */
+	protected boolean inTablebase(State s) {
+		return tablebase != null && tablebase.covers(s);
+	}
+
+	/** @return the value of a drawn position, to either side */
+	protected double drawValue() {
+		statistics.leaf();
+		return 0;
+	}
+
+	/**
+	 * @return the tablebase value of a position it covers, from the AI's
+	 *         point of view
+	 */
+	protected double tablebaseValue(State s, boolean AIisDragon) {
+		statistics.leaf();
+		double value = tablebase.score(s);
+		return AIisDragon ? value : -value;
+	}
+
+	/**
+	 * @return the utility of a leaf from the AI's point of view
+	 */
+	protected double evaluate(State s, boolean AIisDragon) {
+		statistics.leaf();
+		if (AIisDragon) {
+			return gameBoard.utility(s);
+		} else {
+			// Might need to do something more appropriate here if AI is playing as king
+			return -1 * gameBoard.utility(s);
+		}
+	}
+
+	/**
+	 * A symmetric root has every move's mirror image as a move too, leading
+	 * to a mirrored position of the same value, so only one of each pair
+	 * needs searching. That only holds with no game history before the root:
+	 * the positions already played are not mirror images of each other, so
+	 * a move and its mirror image can differ in which of them lead back to
+	 * one and are scored as a draw, anywhere in their subtrees.
+	 *
+	 * @return true if the move can be skipped at the root
+	 */
+	protected boolean mirroredDuplicate(State root, int move) {
+		return rootPly == 0 && Move.mirror(move) < move && root.isSymmetric();
+	}
 }
@@ -0,0 +1,34 @@
+package search;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * A Flight Recorder event for each move the AI searches for, lasting from
+ * the start of the search to its end. Recorded by SearchStatistics.
+ */
+@Name("madking.Search")
+@Label("AI Search")
+@Category({ "Mad King", "Search" })
+@Description("One search for the AI's next move")
+@StackTrace(false)
+class SearchEvent extends Event {
+
+	@Label("Engine")
+	String engine;
+
+	@Label("Depth")
+	@Description("The depth of the deepest iteration that finished")
+	int depth;
+
+	@Label("Nodes")
+	long nodes;
+
+	@Label("Score")
+	@Description("The value of the chosen move to the AI")
+	double score;
+}
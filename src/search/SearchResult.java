@@ -0,0 +1,33 @@
+package search;
+
+import cmpt317A2.GameNode;
+
+/**
+ * The outcome of a timed search: the chosen successor along with how deep the
+ * last completed iteration went.
+ */
+public class SearchResult {
+
+	/** the successor chosen by the search, holding its value */
+	private GameNode node;
+
+	/** the depth of the deepest search that finished in time */
+	private int depth;
+
+	public SearchResult(GameNode node, int depth) {
+		this.node = node;
+		this.depth = depth;
+	}
+
+	public GameNode getNode() {
+		return node;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	public String toString() {
+		return "Depth reached: " + depth + "\n" + node;
+	}
+}
@@ -0,0 +1,229 @@
+package search;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the work a search does, for tuning depth limits and catching a
+ * change that makes the searches slower. Every count is a LongAdder, which
+ * keeps a separate cell for each thread that contends for it, so the
+ * threads of a parallel search can share one set of counts without slowing
+ * each other down.
+ *
+ * The counts are of the last search, from start to finish. The totals over
+ * every search are kept as well, for a long-running process to report as
+ * counters. Each search is also recorded as a SearchEvent for Flight
+ * Recorder, which costs next to nothing unless a recording is running.
+ */
+public class SearchStatistics {
+
+	/** the kind of search counted, to tell its metrics and events apart */
+	private final String engine;
+
+	/** every position the search expanded or stopped at */
+	private final LongAdder nodes = new LongAdder();
+
+	/** positions given a value without being searched any deeper */
+	private final LongAdder leaves = new LongAdder();
+
+	/** nodes whose remaining moves were cut off */
+	private final LongAdder cutoffs = new LongAdder();
+
+	/** cutoffs made by the first move searched */
+	private final LongAdder firstMoveCutoffs = new LongAdder();
+
+	/** the totals of every search before the last */
+	private long totalNodes;
+	private long totalLeaves;
+	private long totalCutoffs;
+	private long totalFirstMoveCutoffs;
+	private long searches;
+
+	/** when the last search started and how long it took, in ns */
+	private long startTime;
+	private volatile long elapsed;
+
+	/** the depth the last search finished */
+	private volatile int depth;
+
+	/** the Flight Recorder event of the search running, null if none */
+	private SearchEvent event;
+
+	public SearchStatistics(String engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * Begin counting a new search. Only the thread running the search calls
+	 * this, before any other thread joins in.
+	 */
+	public synchronized void start() {
+		totalNodes += nodes.sumThenReset();
+		totalLeaves += leaves.sumThenReset();
+		totalCutoffs += cutoffs.sumThenReset();
+		totalFirstMoveCutoffs += firstMoveCutoffs.sumThenReset();
+		searches++;
+		depth = 0;
+		elapsed = 0;
+		event = new SearchEvent();
+		event.begin();
+		startTime = System.nanoTime();
+	}
+
+	/**
+	 * @param depth
+	 *            the depth of the deepest iteration the search finished
+	 * @param score
+	 *            the value of the move chosen, from the AI's point of view
+	 */
+	public synchronized void finish(int depth, double score) {
+		this.depth = depth;
+		this.elapsed = System.nanoTime() - startTime;
+		if (event != null && event.shouldCommit()) {
+			event.engine = engine;
+			event.depth = depth;
+			event.nodes = getNodes();
+			event.score = score;
+			event.commit();
+		}
+		event = null;
+	}
+
+	void node() {
+		nodes.increment();
+	}
+
+	void leaf() {
+		leaves.increment();
+	}
+
+	/**
+	 * @param first
+	 *            true if the first move searched at the node caused the cutoff
+	 */
+	void cutoff(boolean first) {
+		cutoffs.increment();
+		if (first) {
+			firstMoveCutoffs.increment();
+		}
+	}
+
+	public long getNodes() {
+		return nodes.sum();
+	}
+
+	public long getLeaves() {
+		return leaves.sum();
+	}
+
+	public long getCutoffs() {
+		return cutoffs.sum();
+	}
+
+	public long getFirstMoveCutoffs() {
+		return firstMoveCutoffs.sum();
+	}
+
+	/**
+	 * @return the share of cutoffs made by the first move, a measure of how
+	 *         good the move ordering is
+	 */
+	public double getFirstMoveCutoffRate() {
+		long cutoffs = getCutoffs();
+		return cutoffs == 0 ? 0 : (double) getFirstMoveCutoffs() / cutoffs;
+	}
+
+	public String getEngine() {
+		return engine;
+	}
+
+	public int getDepth() {
+		return depth;
+	}
+
+	/** @return how long the last search took, in seconds */
+	public double getSeconds() {
+		return elapsed / 1e9;
+	}
+
+	public double getNodesPerSecond() {
+		return elapsed == 0 ? 0 : getNodes() * 1e9 / elapsed;
+	}
+
+	/**
+	 * @return the branching factor of a uniform tree with as many nodes as
+	 *         the search visited to the depth it reached
+	 */
+	public double getEffectiveBranchingFactor() {
+		return depth == 0 ? 0 : Math.pow(getNodes(), 1.0 / depth);
+	}
+
+	public synchronized long getTotalNodes() {
+		return totalNodes + getNodes();
+	}
+
+	public synchronized long getTotalLeaves() {
+		return totalLeaves + getLeaves();
+	}
+
+	public synchronized long getTotalCutoffs() {
+		return totalCutoffs + getCutoffs();
+	}
+
+	public synchronized long getTotalFirstMoveCutoffs() {
+		return totalFirstMoveCutoffs + getFirstMoveCutoffs();
+	}
+
+	public synchronized long getSearches() {
+		return searches;
+	}
+
+	/**
+	 * @return the statistics in the Prometheus text exposition format: the
+	 *         last search as gauges and the totals as counters, labelled with
+	 *         the engine
+	 */
+	public synchronized String toPrometheus() {
+		StringBuilder out = new StringBuilder();
+		metric(out, engine, "nodes", "gauge", "Nodes visited by the last search.", getNodes());
+		metric(out, engine, "leaves", "gauge", "Leaves evaluated by the last search.", getLeaves());
+		metric(out, engine, "cutoffs", "gauge", "Beta cutoffs in the last search.", getCutoffs());
+		metric(out, engine, "first_move_cutoffs", "gauge", "Cutoffs made by the first move in the last search.",
+				getFirstMoveCutoffs());
+		metric(out, engine, "depth", "gauge", "Depth the last search finished.", depth);
+		metric(out, engine, "seconds", "gauge", "Time the last search took.", getSeconds());
+		metric(out, engine, "nodes_per_second", "gauge", "Nodes per second in the last search.",
+				getNodesPerSecond());
+		metric(out, engine, "branching_factor", "gauge", "Effective branching factor of the last search.",
+				getEffectiveBranchingFactor());
+		metric(out, engine, "nodes_total", "counter", "Nodes visited by every search.", getTotalNodes());
+		metric(out, engine, "leaves_total", "counter", "Leaves evaluated by every search.", getTotalLeaves());
+		metric(out, engine, "cutoffs_total", "counter", "Beta cutoffs in every search.", getTotalCutoffs());
+		metric(out, engine, "first_move_cutoffs_total", "counter", "Cutoffs made by the first move in every search.",
+				getTotalFirstMoveCutoffs());
+		metric(out, engine, "searches_total", "counter", "Searches run.", searches);
+		return out.toString();
+	}
+
+	private static void metric(StringBuilder out, String engine, String name, String type, String help,
+			double value) {
+		String metric = "madking_search_" + name;
+		out.append("# HELP ").append(metric).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(metric).append(' ').append(type).append('\n');
+		out.append(metric).append("{engine=\"").append(engine).append("\"} ");
+		if (value == Math.rint(value) && Math.abs(value) < 1e15) {
+			out.append((long) value);
+		} else {
+			out.append(String.format(Locale.ROOT, "%.6g", value));
+		}
+		out.append('\n');
+	}
+
+	/** @return the last search in one line */
+	public String toString() {
+		return String.format(Locale.ROOT,
+				"%d nodes, %d leaves, %d cutoffs (%.0f%% on the first move), depth %d, %.2fs, %.0f nodes/s, branching factor %.2f",
+				getNodes(), getLeaves(), getCutoffs(), 100 * getFirstMoveCutoffRate(), depth, getSeconds(),
+				getNodesPerSecond(), getEffectiveBranchingFactor());
+	}
+}
@@ -0,0 +1,289 @@
+package search;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import board.Board;
+import board.Move;
+import board.State;
+import cmpt317A2.GameNode;
+
+/**
+ * The parts shared by the searches that keep a transposition table: the
+ * table, the move ordering and a move generator for each ply, the clock of a
+ * timed search and the iterative deepening loop that runs it. A subclass only
+ * supplies the search of the root to the depth limit.
+ */
+abstract class TableSearch extends Search {
+
+	/** the number of entries in the transposition table */
+	static final int TABLE_SIZE = 1 << 20;
+
+	/** the deepest iteration iterativeDeepening will try */
+	private static final int MAX_DEPTH = 64;
+
+	/** how many nodes to visit between looks at the clock */
+	private static final int CLOCK_CHECK_INTERVAL = 1024;
+
+	/** results of positions already searched, shared by every transposition */
+	protected TranspositionTable table;
+
+	/** scores moves so the likeliest cutoffs are searched first */
+	protected MoveOrdering ordering = new MoveOrdering();
+
+	/** one staged move generator for each ply of the search */
+	private MoveGenerator[] generators = new MoveGenerator[0];
+
+	/** settles the captures and threats left hanging at the depth limit */
+	protected Quiescence quiescence;
+
+	/** the wall-clock time iterativeDeepening may spend on a move, in ms */
+	private long timeBudget;
+
+	/** true while iterativeDeepening is running */
+	private boolean timed;
+
+	/** when the current timed search has to stop, from System.nanoTime() */
+	private long deadline;
+
+	/** set once the current timed search has run out of time */
+	private boolean timeUp;
+
+	/** raised by another thread to end the current timed search early */
+	private AtomicBoolean stop;
+
+	/** nodes visited since the clock was last checked */
+	private int nodesSinceClockCheck;
+
+	/** the best move found at the root by the last search */
+	protected int rootMove;
+
+	/**
+	 * @param timeBudget
+	 *            the time in milliseconds iterativeDeepening may spend on each
+	 *            move
+	 * @param stop
+	 *            set by another thread to end iterativeDeepening early
+	 */
+	TableSearch(Board b, long timeBudget, TranspositionTable table, AtomicBoolean stop) {
+		this.gameBoard = b;
+		this.depthLimit = 8;
+		this.timeBudget = timeBudget;
+		this.table = table;
+		this.stop = stop;
+		this.quiescence = new Quiescence(b);
+	}
+
+	/** change the time iterativeDeepening may spend, as pondering does */
+	void setTimeBudget(long timeBudget) {
+		this.timeBudget = timeBudget;
+	}
+
+	/**
+	 * Search the root to the depth limit with a full window, setting rootMove
+	 * to the move chosen.
+	 *
+	 * @return the value of the root from the AI's point of view
+	 */
+	protected abstract double searchRoot(State root, boolean AIisDragon);
+
+	/**
+	 * Search to depth 1, 2, 3... until the time budget runs out, and return
+	 * the move from the last iteration that finished. The first iteration is
+	 * always allowed to finish so there is a move to return.
+	 *
+	 * The transposition table and history scores are kept from the last
+	 * search, which most likely searched this position already, two moves
+	 * deeper.
+	 */
+	protected SearchResult timedSearch(State state, boolean AIisDragon) {
+		table.newSearch();
+		table.restoreLine(state);
+		statistics.start();
+		SearchResult result = iterativeDeepening(state, AIisDragon, 1);
+		statistics.finish(result.getDepth(), result.getNode().getValue());
+		table.rememberLine(state, gameBoard, result.getDepth());
+		return result;
+	}
+
+	/**
+	 * Iterative deepening from the given depth on, using whatever is already
+	 * in the transposition table.
+	 *
+	 * @return the result of the last iteration that finished, or null if none
+	 *         did
+	 */
+	SearchResult iterativeDeepening(State state, boolean AIisDragon, int firstDepth) {
+		int fixedDepthLimit = depthLimit;
+		ordering.ageHistory();
+		deadline = System.nanoTime() + timeBudget * 1000000L;
+		timed = true;
+		timeUp = false;
+		nodesSinceClockCheck = 0;
+
+		SearchResult result = null;
+		for (int depth = firstDepth; depth <= MAX_DEPTH; depth++) {
+			depthLimit = depth;
+			IterationEvent iteration = new IterationEvent();
+			iteration.begin();
+			double value = searchRoot(state, AIisDragon);
+			recordIteration(iteration, depth, value);
+			if (timeUp) {
+				break;
+			}
+			result = new SearchResult(rootResult(state, value), depth);
+			if (stop.get() || System.nanoTime() >= deadline) {
+				break;
+			}
+		}
+
+		depthLimit = fixedDepthLimit;
+		timed = false;
+		timeUp = false;
+		return result;
+	}
+
+	private void recordIteration(IterationEvent iteration, int depth, double value) {
+		if (iteration.shouldCommit()) {
+			iteration.engine = statistics.getEngine();
+			iteration.depth = depth;
+			iteration.score = value;
+			iteration.finished = !timeUp;
+			iteration.commit();
+		}
+	}
+
+	/**
+	 * Forget what earlier searches learned, before a search to the fixed
+	 * depth limit.
+	 */
+	protected void startFixedDepth() {
+		table.clear();
+		ordering.clearHistory();
+		statistics.start();
+	}
+
+	/**
+	 * @return the successor of the root chosen by the last search, or the
+	 *         root itself if the game was already over there
+	 */
+	protected GameNode rootResult(State root, double value) {
+		if (rootMove == Move.NONE) {
+			return new GameNode(root, value, 0);
+		}
+		return new GameNode(new State(root, rootMove), value, 1);
+	}
+
+	/**
+	 * @return the move generator for a ply, creating it the first time the
+	 *         search gets that deep
+	 */
+	protected MoveGenerator generatorAt(int depth) {
+		if (depth >= generators.length) {
+			MoveGenerator[] grown = new MoveGenerator[depth + 1];
+			System.arraycopy(generators, 0, grown, 0, generators.length);
+			for (int i = generators.length; i <= depth; i++) {
+				grown[i] = new MoveGenerator(gameBoard, ordering);
+			}
+			generators = grown;
+		}
+		return generators[depth];
+	}
+
+	/**
+	 * Check the clock, and whether another thread has asked the search to
+	 * stop, every so often during a timed search. Once time is up every node
+	 * returns straight away, and the unfinished iteration is thrown
+	 * out by iterativeDeepening.
+	 *
+	 * @return true if the current search should stop
+	 */
+	protected boolean outOfTime() {
+		if (timeUp) {
+			return true;
+		}
+		if (!timed || depthLimit == 1 || ++nodesSinceClockCheck < CLOCK_CHECK_INTERVAL) {
+			return false;
+		}
+		nodesSinceClockCheck = 0;
+		timeUp = stop.get() || System.nanoTime() >= deadline;
+		return timeUp;
+	}
+
+	/**
+	 * Check whether a node's transposition table entry settles its value.
+	 *
+	 * @param entry
+	 *            the node's entry in the table, 0 if it had none
+	 * @param draft
+	 *            how many more moves deep the node is to be searched
+	 * @param forDragons
+	 *            true if the window is from the dragons' point of view
+	 * @return true if the stored result can be returned as the node's value
+	 */
+	protected boolean tableCutoff(long entry, int draft, double alpha, double beta, boolean forDragons) {
+		if (entry == 0 || TranspositionTable.depth(entry) < draft) {
+			return false;
+		}
+
+		double value = tableValue(entry, forDragons);
+		int bound = TranspositionTable.bound(entry);
+		if (!forDragons) {
+			bound = flipBound(bound);
+		}
+
+		return (bound == TranspositionTable.EXACT) || (bound == TranspositionTable.LOWER && value >= beta)
+				|| (bound == TranspositionTable.UPPER && value <= alpha);
+	}
+
+	/**
+	 * @return the stored score of an entry from the dragons' point of view if
+	 *         forDragons is true, and the king's if not
+	 */
+	protected double tableValue(long entry, boolean forDragons) {
+		double value = TranspositionTable.score(entry);
+		return forDragons ? value : -value;
+	}
+
+	/**
+	 * Record the result of searching a node. The value is exact when it fell
+	 * strictly inside the window the node was searched with, and only a bound
+	 * otherwise.
+	 *
+	 * @param forDragons
+	 *            true if the value and window are from the dragons' point of
+	 *            view
+	 */
+	protected void storeTable(State s, int draft, double value, int bestMove, double alpha, double beta,
+			boolean forDragons) {
+		if (timeUp) {
+			// values from an interrupted search can't be trusted
+			return;
+		}
+
+		int bound;
+		if (value <= alpha) {
+			bound = TranspositionTable.UPPER;
+		} else if (value >= beta) {
+			bound = TranspositionTable.LOWER;
+		} else {
+			bound = TranspositionTable.EXACT;
+		}
+
+		if (!forDragons) {
+			value = -value;
+			bound = flipBound(bound);
+		}
+
+		table.store(s, draft, bound, (int) value, bestMove);
+	}
+
+	/** @return the bound type seen from the other team's point of view */
+	private static int flipBound(int bound) {
+		if (bound == TranspositionTable.LOWER) {
+			return TranspositionTable.UPPER;
+		} else if (bound == TranspositionTable.UPPER) {
+			return TranspositionTable.LOWER;
+		}
+		return bound;
+	}
+}
@@ -0,0 +1,249 @@
+package search;
+
+import java.util.Arrays;
+
+import board.Board;
+import board.Move;
+import board.State;
+
+/**
+ * A fixed-size hash table of search results keyed by a State's Zobrist hash.
+ * Each entry is packed into a single long so a probe never allocates: the
+ * score in the low 32 bits, then 8 bits of remaining depth, 2 bits of bound
+ * type and 16 bits of best move. Scores are stored from the dragons' point of
+ * view so one table can serve the AI on either team. The top 6 bits hold the
+ * generation of the search that stored the entry.
+ *
+ * The table is kept from one move to the next rather than cleared, since the
+ * position the AI now faces was searched two moves deeper last time. Each
+ * search starts a new generation instead. Entries go in buckets of two: the
+ * first keeps the deepest result of the current search, and an entry from an
+ * earlier search gives way to anything; the second always takes the newest
+ * result. Old results keep being used until they are pushed out.
+ *
+ * The table can be shared by several searching threads without locking. Each
+ * slot keeps the key XORed with the entry, so an entry is only returned when
+ * the two halves of the slot were written together; a slot torn by two
+ * threads storing at once simply reads as a miss.
+ *
+ * States are looked up by their canonical hash, so a position and its mirror
+ * image share an entry. The best move is stored the way round it is for the
+ * canonical orientation and mirrored back for a state that is the other way
+ * round.
+ */
+public class TranspositionTable {
+
+	/** the stored score is the exact value of the position */
+	public static final int EXACT = 1;
+
+	/** the position is worth at least the stored score */
+	public static final int LOWER = 2;
+
+	/** the position is worth at most the stored score */
+	public static final int UPPER = 3;
+
+	/** the stored score means nothing, the entry only suggests a move */
+	public static final int HINT = 0;
+
+	/** the number of generations before they wrap around */
+	private static final int GENERATIONS = 1 << 6;
+
+	private final long[] keys;
+	private final long[] data;
+	private final int mask;
+
+	/** the generation of the search running, stored with every entry */
+	private int generation;
+
+	/** the line the last search expected to be played, from lineRoot on */
+	private State lineRoot;
+	private int[] line = new int[0];
+
+	/**
+	 * @param size
+	 *            the number of entries, rounded up to a power of two of at
+	 *            least two
+	 */
+	public TranspositionTable(int size) {
+		int capacity = Integer.highestOneBit(Math.max(2, size - 1)) << 1;
+		keys = new long[capacity];
+		data = new long[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * @param key
+	 *            the hash of the position to look up
+	 * @return the packed entry for the position, or 0 if there is none
+	 */
+	public long probe(long key) {
+		int index = (int) key & mask & ~1;
+		long entry = data[index];
+		if ((keys[index] ^ entry) == key) {
+			return entry;
+		}
+		entry = data[index + 1];
+		if ((keys[index + 1] ^ entry) == key) {
+			return entry;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return the packed entry for the state or its mirror image, or 0 if
+	 *         there is none
+	 */
+	public long probe(State s) {
+		return probe(s.getCanonicalHash());
+	}
+
+	/**
+	 * Store a search result for a state and its mirror image.
+	 */
+	public void store(State s, int depth, int bound, int score, int move) {
+		store(s.getCanonicalHash(), depth, bound, score, s.isMirrored() ? Move.mirror(move) : move);
+	}
+
+	/**
+	 * Store a search result. A position already in its bucket is replaced
+	 * unless it was searched to a greater depth. Otherwise the result goes in
+	 * the first slot if that holds an entry from an earlier search or a
+	 * shallower one, and in the second slot if not.
+	 */
+	public void store(long key, int depth, int bound, int score, int move) {
+		int index = (int) key & mask & ~1;
+		long entry = (score & 0xFFFFFFFFL) | ((long) (depth & 0xFF) << 32) | ((long) bound << 40)
+				| ((long) (move & 0xFFFF) << 42) | ((long) generation << 58);
+
+		for (int slot = index; slot <= index + 1; slot++) {
+			long existing = data[slot];
+			if ((keys[slot] ^ existing) == key) {
+				if (depth(existing) <= depth) {
+					keys[slot] = key ^ entry;
+					data[slot] = entry;
+				}
+				return;
+			}
+		}
+
+		long deepest = data[index];
+		int slot = generation(deepest) != generation || depth(deepest) <= depth ? index : index + 1;
+		keys[slot] = key ^ entry;
+		data[slot] = entry;
+	}
+
+	/**
+	 * Begin a new search. Entries from earlier searches are still returned,
+	 * but give way to the new search's results.
+	 */
+	public void newSearch() {
+		generation = (generation + 1) % GENERATIONS;
+	}
+
+	public void clear() {
+		Arrays.fill(keys, 0);
+		Arrays.fill(data, 0);
+		lineRoot = null;
+		line = new int[0];
+	}
+
+	/**
+	 * Remember the line of best moves from root, as far as the table holds
+	 * it, so that restoreLine can put it back for the next search.
+	 *
+	 * @param length
+	 *            the most moves to follow, the depth root was searched to
+	 */
+	public void rememberLine(State root, Board b, int length) {
+		State s = root.clone();
+		int[] moves = new int[length];
+		int count = 0;
+		while (count < length && !b.isWinner(s)) {
+			long entry = probe(s);
+			int move = entry == 0 ? Move.NONE : move(entry, s);
+			if (move == Move.NONE || !isLegal(b, s, move)) {
+				break;
+			}
+			moves[count++] = move;
+			s.makeMove(move);
+		}
+		lineRoot = root.clone();
+		line = Arrays.copyOf(moves, count);
+	}
+
+	/**
+	 * If root is on the line the last search expected, store the rest of the
+	 * line's moves for the positions that have lost their entries, so the
+	 * next search tries them first. The moves are stored as hints, which
+	 * never settle a position's value and never push out a searched result.
+	 */
+	public void restoreLine(State root) {
+		if (lineRoot == null) {
+			return;
+		}
+		State s = lineRoot.clone();
+		int ply = 0;
+		while (ply < line.length && s.getHash() != root.getHash()) {
+			s.makeMove(line[ply++]);
+		}
+		for (; ply < line.length; ply++) {
+			if (probe(s) == 0) {
+				storeHint(s, line[ply]);
+			}
+			s.makeMove(line[ply]);
+		}
+	}
+
+	/**
+	 * Store a move to try first in s, but only in a slot that is empty or
+	 * holds a result searched to depth 0, so no deeper entry is lost.
+	 */
+	private void storeHint(State s, int move) {
+		long key = s.getCanonicalHash();
+		int index = (int) key & mask & ~1;
+		long entry = ((long) ((s.isMirrored() ? Move.mirror(move) : move) & 0xFFFF) << 42)
+				| ((long) generation << 58);
+		for (int slot = index; slot <= index + 1; slot++) {
+			if (depth(data[slot]) == 0) {
+				keys[slot] = key ^ entry;
+				data[slot] = entry;
+				return;
+			}
+		}
+	}
+
+	private static boolean isLegal(Board b, State s, int move) {
+		for (int legal : b.moves(s)) {
+			if (legal == move) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public static int score(long entry) {
+		return (int) entry;
+	}
+
+	public static int depth(long entry) {
+		return (int) (entry >>> 32) & 0xFF;
+	}
+
+	public static int bound(long entry) {
+		return (int) (entry >>> 40) & 3;
+	}
+
+	public static int move(long entry) {
+		return (int) (entry >>> 42) & 0xFFFF;
+	}
+
+	public static int generation(long entry) {
+		return (int) (entry >>> 58);
+	}
+
+	/** @return the stored best move turned the right way round for s */
+	public static int move(long entry, State s) {
+		int move = move(entry);
+		return s.isMirrored() ? Move.mirror(move) : move;
+	}
+}